@@ -0,0 +1,177 @@
+package shapez.calculate;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SimpleShape} 各图形操作的基准测试.
+ * <p>
+ * 每次调用处理一个图形（堆叠为一对图形），图形按顺序循环取自所选的图形集合：
+ * <ul>
+ *     <li>ALL：全部 65535 个非空 id</li>
+ *     <li>REACHABLE：所有可合成图形，从 shape database/shapes_all.json 读取，没有时现场计算</li>
+ * </ul>
+ * 同时测试 {@link SimpleShapes} 的静态方法，以及 {@link OperateTable}、{@link StackTable} 作为对照。
+ * <p>
+ * 运行方式：{@code mvn -P jmh compile exec:exec}，默认附带 gc 分析器，输出每次操作分配的字节数（gc.alloc.rate.norm）；
+ * 只运行部分测试时，用 {@code -Djmh.include=正则} 指定。
+ *
+ * @author MengLeiFudge
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleShapeBenchmark {
+    /**
+     * 堆叠时下层图形游标的步长，与图形数互质，使每对图形尽量不同.
+     */
+    private static final int PAIR_STRIDE = 7919;
+    private static final Operate[] UNARY = {
+            Operate.LEFT, Operate.RIGHT, Operate.TOP_RIGHT, Operate.BOTTOM_RIGHT,
+            Operate.BOTTOM_LEFT, Operate.TOP_LEFT, Operate.R90, Operate.R180, Operate.R270
+    };
+
+    @Param({"ALL", "REACHABLE"})
+    public String domain;
+
+    private int[] ids;
+    private SimpleShape[] shapes;
+    private int i;
+    private int j;
+    private int x;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if ("ALL".equals(domain)) {
+            ids = new int[ShapeClosure.ID_NUM - 1];
+            for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+                ids[id - 1] = id;
+            }
+        } else {
+            File file = FileUtils.getFile("shape database", "shapes_all.json");
+            ShapeSet set;
+            if (file.exists()) {
+                set = ShapeSet.readJson(file);
+            } else {
+                ShapeClosure closure = new ShapeClosure();
+                closure.calculate();
+                set = closure.getShapes();
+            }
+            ids = set.toArray();
+        }
+        shapes = new SimpleShape[ids.length];
+        for (int k = 0; k < ids.length; k++) {
+            shapes[k] = new SimpleShape(ids[k]);
+        }
+    }
+
+    private int nextIndex() {
+        int k = i;
+        i = k + 1 == ids.length ? 0 : k + 1;
+        return k;
+    }
+
+    private int nextPartner() {
+        j += PAIR_STRIDE;
+        if (j >= ids.length) {
+            j -= ids.length;
+        }
+        return j;
+    }
+
+    private Operate nextOperate() {
+        Operate operate = UNARY[x];
+        x = x + 1 == UNARY.length ? 0 : x + 1;
+        return operate;
+    }
+
+    @Benchmark
+    public int rotate() {
+        return new SimpleShape(ids[nextIndex()]).rotate(90).id();
+    }
+
+    /**
+     * 左半部分，使用 AX 的切割方法.
+     */
+    @Benchmark
+    public int cutAX() {
+        return new SimpleShape(ids[nextIndex()]).cutAX(0b1100).id();
+    }
+
+    /**
+     * 左半部分，使用 BC 的切割方法.
+     */
+    @Benchmark
+    public int cutBC() {
+        return new SimpleShape(ids[nextIndex()]).cutBC(0b1100).id();
+    }
+
+    @Benchmark
+    public int stackOn() {
+        return new SimpleShape(ids[nextIndex()]).stackOn(shapes[nextPartner()]).id();
+    }
+
+    /**
+     * 经过 {@link SimpleShape#process} 分发的单图形操作，依次循环所有切割、旋转.
+     */
+    @Benchmark
+    public int processUnary() {
+        return new SimpleShape(ids[nextIndex()]).process(nextOperate()).id();
+    }
+
+    /**
+     * 经过 {@link SimpleShape#process} 分发的堆叠，包括可变参数数组的开销.
+     */
+    @Benchmark
+    public int processStack() {
+        return new SimpleShape(ids[nextIndex()]).process(Operate.STACK, shapes[nextPartner()]).id();
+    }
+
+    @Benchmark
+    public int staticRotate90() {
+        return SimpleShapes.rotate90(ids[nextIndex()]);
+    }
+
+    @Benchmark
+    public int staticCut() {
+        return SimpleShapes.cut(ids[nextIndex()], SimpleShapes.LEFT);
+    }
+
+    @Benchmark
+    public int staticStack() {
+        return SimpleShapes.stack(ids[nextIndex()], ids[nextPartner()]);
+    }
+
+    @Benchmark
+    public int staticApply() {
+        return SimpleShapes.apply(nextOperate(), ids[nextIndex()]);
+    }
+
+    @Benchmark
+    public int operateTable() {
+        return OperateTable.apply(nextOperate(), ids[nextIndex()]);
+    }
+
+    @Benchmark
+    public int stackTable() {
+        return StackTable.stack(ids[nextIndex()], ids[nextPartner()]);
+    }
+}
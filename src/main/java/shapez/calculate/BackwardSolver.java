@@ -0,0 +1,420 @@
+package shapez.calculate;
+
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * 从目标图形出发，反向寻找合成方法.
+ * <p>
+ * 不需要预先计算所有可合成图形，也不需要配方数据库：目标图形不是单层图形时，
+ * 依次尝试把它拆成可以得到它的图形，直至所有叶子都是单层图形。拆分顺序为：
+ * <ol>
+ *     <li>堆叠，从 {@link Preimages#forEachStack} 的拆法中，只取上层图形被挤出的部分为空或为满的一层的拆分</li>
+ *     <li>旋转，来源图形唯一</li>
+ *     <li>切割，只尝试切掉的部分每层都是满的来源图形，满的部分能托住保留的部分</li>
+ * </ol>
+ * 每个图形的结果都会记住，之后的查询可以直接使用。
+ * <p>
+ * 得到的配方不保证最优，需要最优配方时请使用 {@link RecipeDatabase}。
+ * 该类不是线程安全的。
+ *
+ * @author MengLeiFudge
+ */
+public final class BackwardSolver {
+    private static final byte UNKNOWN = 0;
+    private static final byte SOLVED = 1;
+    private static final byte FAILED = 2;
+    /**
+     * 访问图形时，需要为其新建搜索帧.
+     */
+    private static final byte SEARCH = 3;
+    /**
+     * 第一轮的拆分深度上限，大部分图形在该深度内就能找到配方.
+     */
+    private static final int MIN_DEPTH = 8;
+
+    /**
+     * 依次尝试的单图形操作，旋转在前，切割在后.
+     */
+    private final Operate[] unary;
+    private final boolean stack;
+    private final byte[] states = new byte[ShapeClosure.ID_NUM];
+    private final byte[] operates = new byte[ShapeClosure.ID_NUM];
+    private final char[] parents1 = new char[ShapeClosure.ID_NUM];
+    private final char[] parents2 = new char[ShapeClosure.ID_NUM];
+    /**
+     * 图形最近一次被访问的轮次.
+     */
+    private final int[] rounds = new int[ShapeClosure.ID_NUM];
+    private final int[] visited = new int[ShapeClosure.ID_NUM];
+    private int visitedNum;
+    private int round;
+    private boolean progress;
+    /**
+     * 本轮搜索帧的数目上限，即拆分的深度上限.
+     */
+    private int depthLimit;
+    /**
+     * 本轮是否有图形因为深度上限而没有展开.
+     */
+    private boolean limited;
+    /*
+     * 搜索帧，每个正在求解的图形一帧，代替递归，以免搜索链过长时栈溢出.
+     * stage 为 -1 时正在枚举堆叠的拆分，游标为 bottom、k、h（见 nextStack）；否则为 unary 的索引。
+     * need 为当前拆分中下一个待确认的来源图形（1 或 2），为 0 时需要取下一个拆分。
+     */
+    private final int[] frameIds = new int[ShapeClosure.ID_NUM];
+    private final int[] frameStages = new int[ShapeClosure.ID_NUM];
+    private final int[] frameBottoms = new int[ShapeClosure.ID_NUM];
+    private final int[] frameKs = new int[ShapeClosure.ID_NUM];
+    private final int[] frameHs = new int[ShapeClosure.ID_NUM];
+    private final byte[] frameOperates = new byte[ShapeClosure.ID_NUM];
+    private final int[] frameParents1 = new int[ShapeClosure.ID_NUM];
+    private final int[] frameParents2 = new int[ShapeClosure.ID_NUM];
+    private final int[] frameNeeds = new int[ShapeClosure.ID_NUM];
+    private int frameNum;
+
+    /**
+     * 创建求解器.
+     *
+     * @param operates 允许使用的操作
+     */
+    public BackwardSolver(Operate[] operates) {
+        EnumSet<Operate> set = EnumSet.noneOf(Operate.class);
+        set.addAll(List.of(operates));
+        this.stack = set.remove(Operate.STACK);
+        this.unary = set.stream()
+                .sorted(Comparator.comparing(x -> !isRotate(x)))
+                .toArray(Operate[]::new);
+    }
+
+    private static boolean isRotate(Operate x) {
+        return x == Operate.R90 || x == Operate.R180 || x == Operate.R270;
+    }
+
+    /**
+     * 判断图形能否合成，能合成时记录其配方.
+     * <p>
+     * 搜索按轮进行：每轮中每个图形最多展开一次，遇到本轮已展开的图形视为失败。
+     * 某轮没有找到配方、但求解了新的图形时，这些图形可能让之前失败的拆分成功，需要再搜索一轮；
+     * 某轮没有求解任何新的图形时，本轮访问过的图形都无法合成，之后的查询可以直接使用该结果。
+     * <p>
+     * 失败的子目标往往要展开大量图形才能确定，因此先限制拆分的深度，找不到时再取消限制，
+     * 只有不受深度限制的一轮才能确定无法合成。
+     * 不使用已有的结果时，能合成的图形通常只需几毫秒至几十毫秒，确定无法合成约需几百毫秒。
+     *
+     * @param id 图形 id
+     * @return 能否合成
+     */
+    public boolean solve(int id) {
+        if (id <= 0 || id >= ShapeClosure.ID_NUM) {
+            return false;
+        }
+        depthLimit = MIN_DEPTH;
+        while (true) {
+            round++;
+            visitedNum = 0;
+            progress = false;
+            limited = false;
+            if (search(id)) {
+                return true;
+            }
+            if (progress) {
+                continue;
+            }
+            if (!limited) {
+                for (int i = 0; i < visitedNum; i++) {
+                    states[visited[i]] = FAILED;
+                }
+                return false;
+            }
+            depthLimit = Integer.MAX_VALUE;
+        }
+    }
+
+    private boolean search(int id) {
+        byte state = visit(id);
+        if (state != SEARCH) {
+            return state == SOLVED;
+        }
+        // 最近一个出栈的帧是否求解成功
+        boolean solved = false;
+        boolean returned = false;
+        while (frameNum > 0) {
+            int f = frameNum - 1;
+            if (returned) {
+                returned = false;
+                frameNeeds[f] = solved ? frameNeeds[f] + 1 : 0;
+            }
+            while (true) {
+                if (frameNeeds[f] == 0) {
+                    if (!next(f)) {
+                        frameNum--;
+                        solved = false;
+                        returned = true;
+                        break;
+                    }
+                    frameNeeds[f] = 1;
+                }
+                if (frameNeeds[f] == 1) {
+                    state = visit(frameParents1[f]);
+                } else if (frameOperates[f] == Operate.STACK.ordinal() && frameNeeds[f] == 2) {
+                    state = visit(frameParents2[f]);
+                } else {
+                    // 来源图形都已求解
+                    record(frameIds[f], frameOperates[f], frameParents1[f], frameParents2[f]);
+                    frameNum--;
+                    solved = true;
+                    returned = true;
+                    break;
+                }
+                if (state == SEARCH) {
+                    break;
+                }
+                frameNeeds[f] = state == SOLVED ? frameNeeds[f] + 1 : 0;
+            }
+        }
+        return solved;
+    }
+
+    /**
+     * 访问图形.
+     *
+     * @return 已知能否合成时为 {@link #SOLVED} 或 {@link #FAILED}，本轮已展开过时为 {@link #FAILED}，
+     * 否则新建搜索帧并返回 {@link #SEARCH}
+     */
+    private byte visit(int id) {
+        if (states[id] != UNKNOWN) {
+            return states[id];
+        }
+        if (id <= 0xF) {
+            record(id, RecipeDatabase.BASE, 0, 0);
+            return SOLVED;
+        }
+        if (rounds[id] == round) {
+            return FAILED;
+        }
+        if (frameNum >= depthLimit) {
+            limited = true;
+            return FAILED;
+        }
+        rounds[id] = round;
+        visited[visitedNum++] = id;
+        int f = frameNum++;
+        frameIds[f] = id;
+        frameStages[f] = stack ? -1 : 0;
+        frameBottoms[f] = id;
+        frameKs[f] = 0;
+        frameHs[f] = -1;
+        frameParents2[f] = 0;
+        frameNeeds[f] = 0;
+        return SEARCH;
+    }
+
+    /**
+     * 取该帧的下一个拆分.
+     *
+     * @return 是否还有拆分
+     */
+    private boolean next(int f) {
+        if (frameStages[f] < 0) {
+            if (nextStack(f)) {
+                frameOperates[f] = (byte) Operate.STACK.ordinal();
+                return true;
+            }
+            frameStages[f] = 0;
+            frameParents2[f] = 0;
+        }
+        int id = frameIds[f];
+        while (frameStages[f] < unary.length) {
+            Operate x = unary[frameStages[f]++];
+            int source = switch (x) {
+                case R90 -> SimpleShapes.rotate270(id);
+                case R180 -> SimpleShapes.rotate180(id);
+                case R270 -> SimpleShapes.rotate90(id);
+                default -> fill(id, x);
+            };
+            if (source != 0) {
+                frameOperates[f] = (byte) x.ordinal();
+                frameParents1[f] = source;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取下一种堆叠的拆分.
+     * <p>
+     * 下层图形从大到小枚举目标的真子集。上层图形被挤出的部分可以任意，
+     * 但只需考虑没有被挤出的部分，以及被挤出的部分为满的一层这两种：
+     * 前者最小，后者能托住上层图形的其余部分，与完整枚举得到的可合成图形相同。
+     */
+    private boolean nextStack(int f) {
+        int id = frameIds[f];
+        int bottom = frameBottoms[f];
+        int k = frameKs[f];
+        int h = frameHs[f] + 1;
+        while (true) {
+            int part = id ^ bottom;
+            if (bottom == id || k > Integer.numberOfTrailingZeros(part) >>> 2) {
+                bottom = (bottom - 1) & id;
+                if (bottom == 0) {
+                    return false;
+                }
+                k = 0;
+                h = 0;
+                continue;
+            }
+            int hidden = 4 * k;
+            int visible = part >>> hidden;
+            int shift = StackTable.shift(StackTable.topProfile(visible), StackTable.bottomProfile(bottom));
+            if (shift <= hidden) {
+                // h 为 0 时上层图形没有被挤出的部分，为 1 时被挤出的部分为满的一层
+                for (; h < 2; h++) {
+                    boolean valid = h == 0
+                            ? shift == hidden
+                            // 偏移不足 k 层时，被挤出的这一层必须落在高度为 4 的列上
+                            : k > 0 && (shift == hidden || (bottom >>> 12) != 0);
+                    if (valid) {
+                        frameBottoms[f] = bottom;
+                        frameKs[f] = k;
+                        frameHs[f] = h;
+                        frameParents1[f] = visible | (h == 0 ? 0 : 0xF << (16 - hidden));
+                        frameParents2[f] = bottom;
+                        return true;
+                    }
+                }
+            }
+            k++;
+            h = 0;
+        }
+    }
+
+    /**
+     * 返回切割后得到该图形、且切掉的部分每层都是满的图形.
+     *
+     * @return 来源图形 id，不存在时为 0
+     */
+    private static int fill(int id, Operate cut) {
+        int mask = switch (cut) {
+            case LEFT -> SimpleShapes.LEFT;
+            case RIGHT -> SimpleShapes.RIGHT;
+            case TOP_RIGHT -> SimpleShapes.TOP_RIGHT;
+            case BOTTOM_RIGHT -> SimpleShapes.BOTTOM_RIGHT;
+            case BOTTOM_LEFT -> SimpleShapes.BOTTOM_LEFT;
+            case TOP_LEFT -> SimpleShapes.TOP_LEFT;
+            default -> throw new IllegalArgumentException(cut + " 不是切割");
+        };
+        int source = 0;
+        for (int layer = 0; layer < 4; layer++) {
+            int x = (id >>> (layer * 4)) & 0xF;
+            if (x == 0) {
+                break;
+            }
+            if ((x & ~mask) != 0) {
+                return 0;
+            }
+            source |= (x | (~mask & 0xF)) << (layer * 4);
+        }
+        return SimpleShapes.apply(cut, source) == id ? source : 0;
+    }
+
+    private void record(int id, byte operate, int parent1, int parent2) {
+        states[id] = SOLVED;
+        progress = true;
+        operates[id] = operate;
+        parents1[id] = (char) parent1;
+        parents2[id] = (char) parent2;
+    }
+
+    private void checkSolved(int id) {
+        if (id <= 0 || id >= ShapeClosure.ID_NUM || states[id] != SOLVED) {
+            throw new IllegalArgumentException("图形 " + id + " 尚未求解或无法合成");
+        }
+    }
+
+    /**
+     * 判断图形是否为单层图形，即配方的叶子.
+     *
+     * @param id 已求解的图形 id
+     * @return 是否为单层图形
+     * @throws IllegalArgumentException 如果图形尚未求解或无法合成
+     */
+    public boolean isBase(int id) {
+        checkSolved(id);
+        return operates[id] == RecipeDatabase.BASE;
+    }
+
+    /**
+     * 返回最后一步的操作.
+     *
+     * @param id 已求解的图形 id
+     * @return 最后一步的操作，单层图形返回 null
+     * @throws IllegalArgumentException 如果图形尚未求解或无法合成
+     */
+    public Operate getOperate(int id) {
+        return isBase(id) ? null : Operate.values()[operates[id]];
+    }
+
+    /**
+     * 返回被操作的图形1，堆叠时为上层图形.
+     *
+     * @param id 已求解的图形 id
+     * @return 图形 id，单层图形返回 0
+     * @throws IllegalArgumentException 如果图形尚未求解或无法合成
+     */
+    public int getParent1(int id) {
+        checkSolved(id);
+        return parents1[id];
+    }
+
+    /**
+     * 返回被操作的图形2，只有堆叠时存在，为下层图形.
+     *
+     * @param id 已求解的图形 id
+     * @return 图形 id，不是堆叠时返回 0
+     * @throws IllegalArgumentException 如果图形尚未求解或无法合成
+     */
+    public int getParent2(int id) {
+        checkSolved(id);
+        return parents2[id];
+    }
+
+    /**
+     * 返回配方的文本形式，格式与 {@link RecipeTree.Node#toTreeString()} 相同.
+     *
+     * @param id 已求解的图形 id
+     * @return 配方文本
+     * @throws IllegalArgumentException 如果图形尚未求解或无法合成
+     */
+    public String toTreeString(int id) {
+        checkSolved(id);
+        StringBuilder sb = new StringBuilder();
+        append(sb, id, 0, new ShapeSet());
+        return sb.toString();
+    }
+
+    private void append(StringBuilder sb, int id, int depth, ShapeSet expanded) {
+        sb.append("  ".repeat(depth)).append(id);
+        if (operates[id] == RecipeDatabase.BASE) {
+            sb.append(" = BASE\n");
+            return;
+        }
+        if (!expanded.add(id)) {
+            sb.append(" (同上)\n");
+            return;
+        }
+        Operate operate = Operate.values()[operates[id]];
+        sb.append(" = ").append(operate).append('(').append((int) parents1[id]);
+        if (operate == Operate.STACK) {
+            sb.append(", ").append((int) parents2[id]);
+        }
+        sb.append(")\n");
+        append(sb, parents1[id], depth + 1, expanded);
+        if (operate == Operate.STACK) {
+            append(sb, parents2[id], depth + 1, expanded);
+        }
+    }
+}
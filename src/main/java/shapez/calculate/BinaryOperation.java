@@ -0,0 +1,88 @@
+package shapez.calculate;
+
+/**
+ * 双图形操作，即图形 id 对上的纯函数.
+ * <p>
+ * 图形对有 2^32 个，无法预先算出结果表。与堆叠（见 {@link StackTable}）相同，
+ * 操作可以把两个输入图形各自分组，并为每对分组预先算出一个参数，使组内任意图形对的结果只需一次简单计算；
+ * 某对分组的结果都没有意义时，参数为 {@link #SKIP}，计算时整组跳过。
+ * {@link CompiledOperations} 在编译时算好所有图形的分组与所有分组对的参数。
+ * <p>
+ * 不分组时，只有一对分组，参数为 0，每次都调用 {@link #apply(int, int)}。
+ *
+ * @author MengLeiFudge
+ * @see OperationProvider
+ */
+public interface BinaryOperation {
+    /**
+     * 表示该对分组的结果都不会产生新图形，例如堆叠时上层图形被完全挤出.
+     */
+    int SKIP = Integer.MIN_VALUE;
+
+    /**
+     * 返回操作名称，同一组操作中不能重复.
+     *
+     * @return 操作名称
+     */
+    String getName();
+
+    /**
+     * 返回操作的结果.
+     *
+     * @param first  图形1 id，如堆叠的上层图形
+     * @param second 图形2 id，如堆叠的下层图形
+     * @return 结果图形 id，范围为 0x0000 - 0xffff，为 0 表示没有结果
+     */
+    int apply(int first, int second);
+
+    default int getFirstProfileNum() {
+        return 1;
+    }
+
+    /**
+     * 返回图形作为图形1时的分组.
+     *
+     * @param id 图形 id
+     * @return 分组，范围为 0 - {@link #getFirstProfileNum()} - 1
+     */
+    default int firstProfile(int id) {
+        return 0;
+    }
+
+    default int getSecondProfileNum() {
+        return 1;
+    }
+
+    /**
+     * 返回图形作为图形2时的分组.
+     *
+     * @param id 图形 id
+     * @return 分组，范围为 0 - {@link #getSecondProfileNum()} - 1
+     */
+    default int secondProfile(int id) {
+        return 0;
+    }
+
+    /**
+     * 返回一对分组的参数，如堆叠时上层图形的位移.
+     *
+     * @param firstProfile  图形1的分组
+     * @param secondProfile 图形2的分组
+     * @return 参数，为 {@link #SKIP} 时整组跳过
+     */
+    default int parameter(int firstProfile, int secondProfile) {
+        return 0;
+    }
+
+    /**
+     * 使用分组对的参数返回操作的结果，必须与 {@link #apply(int, int)} 相同.
+     *
+     * @param first     图形1 id
+     * @param second    图形2 id
+     * @param parameter 两个图形所在分组对的参数，不为 {@link #SKIP}
+     * @return 结果图形 id
+     */
+    default int apply(int first, int second, int parameter) {
+        return apply(first, second);
+    }
+}
@@ -0,0 +1,93 @@
+package shapez.calculate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 可合成图形计算的检查点，记录某一层处理完毕时的状态.
+ * <p>
+ * 由于每层只依赖步骤表，检查点只需保存步骤表与下一层前沿的步骤数，
+ * 步骤数等于该值的图形即为下一层前沿。
+ * <p>
+ * 文件依次为魔数、格式版本、规则配置名称、允许使用的操作（见 {@link Operate#toMask}）、
+ * 规则指纹（见 {@link RuleFingerprint}）、下一层前沿的步骤数，以及 65536 个 byte 的步骤表。
+ * 写入时先写临时文件，再替换原文件，因此检查点文件总是完整的。
+ *
+ * @author MengLeiFudge
+ */
+final class ClosureCheckpoint {
+    /**
+     * 魔数，即 "SPZC".
+     */
+    private static final int MAGIC = 0x53505A43;
+    /**
+     * 格式版本，格式改变时递增.
+     */
+    static final int VERSION = 2;
+
+    final String profile;
+    final int operates;
+    final long fingerprint;
+    final int step;
+    final byte[] steps;
+
+    ClosureCheckpoint(String profile, int operates, long fingerprint, int step, byte[] steps) {
+        this.profile = profile;
+        this.operates = operates;
+        this.fingerprint = fingerprint;
+        this.step = step;
+        this.steps = steps;
+    }
+
+    void write(File file) throws IOException {
+        Path path = file.toPath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(profile);
+            out.writeInt(operates);
+            out.writeLong(fingerprint);
+            out.writeInt(step);
+            out.write(steps);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取检查点.
+     *
+     * @param file 检查点文件
+     * @return 检查点
+     * @throws IOException              如果读取文件失败
+     * @throws IllegalArgumentException 如果文件格式或版本不对
+     */
+    static ClosureCheckpoint read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("不是检查点文件：" + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("检查点文件版本为 " + version + "，当前版本为 " + VERSION);
+            }
+            String profile = in.readUTF();
+            int operates = in.readInt();
+            long fingerprint = in.readLong();
+            int step = in.readInt();
+            byte[] steps = new byte[ShapeClosure.ID_NUM];
+            in.readFully(steps);
+            return new ClosureCheckpoint(profile, operates, fingerprint, step, steps);
+        }
+    }
+}
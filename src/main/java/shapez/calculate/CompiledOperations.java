@@ -0,0 +1,386 @@
+package shapez.calculate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * 编译后的一组操作，单图形操作为结果表，双图形操作为分组与分组对的参数表.
+ * <p>
+ * 内置操作（{@link Operate}）与 {@link OperationProvider} 提供的操作编译后没有区别，
+ * {@link OperationClosure} 对它们一视同仁。内置的切割、旋转直接使用 {@link OperateTable} 的结果表，
+ * 内置的堆叠按 {@link StackTable} 的列高度组合分组，参数为上层图形的位移。
+ *
+ * @author MengLeiFudge
+ */
+public final class CompiledOperations {
+    /**
+     * 双图形操作分组对的数目上限.
+     */
+    private static final int MAX_PARAMETER_NUM = 1 << 24;
+
+    private final UnaryOperation[] unary;
+    private final String[] unaryNames;
+    private final char[][] unaryTables;
+    private final BinaryOperation[] binary;
+    private final int[][] firstProfiles;
+    private final int[][] secondProfiles;
+    private final int[] secondProfileNums;
+    /**
+     * 分组对的参数，索引为 图形1的分组 * 图形2的分组数 + 图形2的分组.
+     */
+    private final int[][] parameters;
+
+    private CompiledOperations(List<UnaryOperation> unary, List<BinaryOperation> binary) {
+        Set<String> names = new HashSet<>();
+        this.unary = unary.toArray(new UnaryOperation[0]);
+        unaryNames = new String[unary.size()];
+        unaryTables = new char[unary.size()][];
+        for (int i = 0; i < unary.size(); i++) {
+            UnaryOperation x = unary.get(i);
+            unaryNames[i] = checkName(names, x.getName());
+            unaryTables[i] = x instanceof BuiltinUnary builtin ? OperateTable.table(builtin.operate()) : compile(x);
+        }
+        this.binary = binary.toArray(new BinaryOperation[0]);
+        firstProfiles = new int[this.binary.length][];
+        secondProfiles = new int[this.binary.length][];
+        secondProfileNums = new int[this.binary.length];
+        parameters = new int[this.binary.length][];
+        for (int i = 0; i < this.binary.length; i++) {
+            BinaryOperation x = this.binary[i];
+            checkName(names, x.getName());
+            int firstNum = x.getFirstProfileNum();
+            int secondNum = x.getSecondProfileNum();
+            if (firstNum <= 0 || secondNum <= 0 || (long) firstNum * secondNum > MAX_PARAMETER_NUM) {
+                throw new IllegalArgumentException("操作 " + x.getName() + " 的分组数不合规：" + firstNum + "、" + secondNum);
+            }
+            firstProfiles[i] = new int[ShapeClosure.ID_NUM];
+            secondProfiles[i] = new int[ShapeClosure.ID_NUM];
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                firstProfiles[i][id] = checkProfile(x, id, x.firstProfile(id), firstNum);
+                secondProfiles[i][id] = checkProfile(x, id, x.secondProfile(id), secondNum);
+            }
+            secondProfileNums[i] = secondNum;
+            parameters[i] = new int[firstNum * secondNum];
+            for (int f = 0; f < firstNum; f++) {
+                for (int s = 0; s < secondNum; s++) {
+                    parameters[i][f * secondNum + s] = x.parameter(f, s);
+                }
+            }
+        }
+    }
+
+    private static String checkName(Set<String> names, String name) {
+        if (name == null || !names.add(name)) {
+            throw new IllegalArgumentException("操作名称为空或重复：" + name);
+        }
+        return name;
+    }
+
+    private static char[] compile(UnaryOperation x) {
+        char[] table = new char[ShapeClosure.ID_NUM];
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            int result = x.apply(id);
+            if (result < 0 || result >= ShapeClosure.ID_NUM) {
+                throw new IllegalArgumentException("操作 " + x.getName() + " 对图形 " + id + " 的结果超出范围：" + result);
+            }
+            table[id] = (char) result;
+        }
+        return table;
+    }
+
+    private static int checkProfile(BinaryOperation x, int id, int profile, int profileNum) {
+        if (profile < 0 || profile >= profileNum) {
+            throw new IllegalArgumentException("操作 " + x.getName() + " 中图形 " + id + " 的分组超出范围：" + profile);
+        }
+        return profile;
+    }
+
+    /**
+     * 编译一组操作.
+     *
+     * @param unary  单图形操作
+     * @param binary 双图形操作
+     * @return 编译后的操作
+     * @throws IllegalArgumentException 如果操作名称重复，或结果、分组超出范围
+     */
+    public static CompiledOperations compile(List<UnaryOperation> unary, List<BinaryOperation> binary) {
+        return new CompiledOperations(unary, binary);
+    }
+
+    /**
+     * 编译内置操作.
+     *
+     * @param operates 内置操作
+     * @return 编译后的操作
+     */
+    public static CompiledOperations of(Operate... operates) {
+        List<UnaryOperation> unary = new ArrayList<>();
+        List<BinaryOperation> binary = new ArrayList<>();
+        addBuiltin(operates, unary, binary);
+        return new CompiledOperations(unary, binary);
+    }
+
+    /**
+     * 编译内置操作，以及所有 {@link OperationProvider} 提供的操作.
+     *
+     * @param operates 内置操作
+     * @return 编译后的操作
+     * @throws IllegalArgumentException 如果操作名称重复，或结果、分组超出范围
+     */
+    public static CompiledOperations load(Operate... operates) {
+        return load(operates, ServiceLoader.load(OperationProvider.class));
+    }
+
+    /**
+     * 编译内置操作，以及给定的 {@link OperationProvider} 提供的操作.
+     *
+     * @param operates  内置操作
+     * @param providers 提供额外操作的服务
+     * @return 编译后的操作
+     * @throws IllegalArgumentException 如果操作名称重复，或结果、分组超出范围
+     */
+    static CompiledOperations load(Operate[] operates, Iterable<? extends OperationProvider> providers) {
+        List<UnaryOperation> unary = new ArrayList<>();
+        List<BinaryOperation> binary = new ArrayList<>();
+        addBuiltin(operates, unary, binary);
+        for (var provider : providers) {
+            unary.addAll(provider.getUnaryOperations());
+            binary.addAll(provider.getBinaryOperations());
+        }
+        return new CompiledOperations(unary, binary);
+    }
+
+    /**
+     * 把内置操作换成给定的操作，额外操作保持不变，重新编译.
+     *
+     * @param operates 内置操作
+     * @return 编译后的操作
+     */
+    CompiledOperations withOperates(Operate... operates) {
+        List<UnaryOperation> unary = new ArrayList<>();
+        List<BinaryOperation> binary = new ArrayList<>();
+        addBuiltin(operates, unary, binary);
+        for (var x : this.unary) {
+            if (!(x instanceof BuiltinUnary)) {
+                unary.add(x);
+            }
+        }
+        for (var x : this.binary) {
+            if (!(x instanceof BuiltinStack)) {
+                binary.add(x);
+            }
+        }
+        return new CompiledOperations(unary, binary);
+    }
+
+    private static void addBuiltin(Operate[] operates, List<UnaryOperation> unary, List<BinaryOperation> binary) {
+        for (var x : Operate.fromMask(Operate.toMask(operates))) {
+            if (x == Operate.STACK) {
+                binary.add(new BuiltinStack());
+            } else {
+                unary.add(new BuiltinUnary(x));
+            }
+        }
+    }
+
+    /**
+     * 内置的切割、旋转，结果表直接使用 {@link OperateTable}.
+     */
+    private record BuiltinUnary(Operate operate) implements UnaryOperation {
+        @Override
+        public String getName() {
+            return operate.name();
+        }
+
+        @Override
+        public int apply(int id) {
+            return OperateTable.apply(operate, id);
+        }
+    }
+
+    /**
+     * 内置的堆叠，图形1为上层图形，图形2为下层图形.
+     */
+    private record BuiltinStack() implements BinaryOperation {
+        @Override
+        public String getName() {
+            return Operate.STACK.name();
+        }
+
+        @Override
+        public int apply(int first, int second) {
+            return StackTable.stack(first, second);
+        }
+
+        @Override
+        public int getFirstProfileNum() {
+            return StackTable.PROFILE_NUM;
+        }
+
+        @Override
+        public int firstProfile(int id) {
+            return StackTable.topProfile(id);
+        }
+
+        @Override
+        public int getSecondProfileNum() {
+            return StackTable.PROFILE_NUM;
+        }
+
+        @Override
+        public int secondProfile(int id) {
+            return StackTable.bottomProfile(id);
+        }
+
+        @Override
+        public int parameter(int firstProfile, int secondProfile) {
+            int shift = StackTable.shift(firstProfile, secondProfile);
+            return shift == StackTable.SHIFT_OUT ? SKIP : shift;
+        }
+
+        @Override
+        public int apply(int first, int second, int parameter) {
+            return second | ((first << parameter) & 0xFFFF);
+        }
+    }
+
+    /**
+     * 返回其中的内置操作.
+     *
+     * @return 内置操作，按序号排列
+     */
+    public Operate[] getOperates() {
+        int mask = 0;
+        for (var x : unary) {
+            if (x instanceof BuiltinUnary builtin) {
+                mask |= 1 << builtin.operate().ordinal();
+            }
+        }
+        for (var x : binary) {
+            if (x instanceof BuiltinStack) {
+                mask |= 1 << Operate.STACK.ordinal();
+            }
+        }
+        return Operate.fromMask(mask);
+    }
+
+    /**
+     * 返回是否有内置操作以外的操作.
+     *
+     * @return 是否有额外操作
+     */
+    public boolean hasExtensions() {
+        for (int i = 0; i < unary.length; i++) {
+            if (!isBuiltinUnary(i)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < binary.length; i++) {
+            if (!isBuiltinBinary(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isBuiltinUnary(int i) {
+        return unary[i] instanceof BuiltinUnary;
+    }
+
+    boolean isBuiltinBinary(int i) {
+        return binary[i] instanceof BuiltinStack;
+    }
+
+    public int getUnaryNum() {
+        return unaryTables.length;
+    }
+
+    public String getUnaryName(int i) {
+        return unaryNames[i];
+    }
+
+    /**
+     * 返回第 i 个单图形操作的结果.
+     *
+     * @param i  操作序号
+     * @param id 图形 id
+     * @return 结果图形 id
+     */
+    public int applyUnary(int i, int id) {
+        return unaryTables[i][id];
+    }
+
+    /**
+     * 返回第 i 个单图形操作的结果表，不复制，不能修改.
+     *
+     * @param i 操作序号
+     * @return 结果表，索引为图形 id
+     */
+    char[] unaryTable(int i) {
+        return unaryTables[i];
+    }
+
+    public int getBinaryNum() {
+        return binary.length;
+    }
+
+    public String getBinaryName(int i) {
+        return binary[i].getName();
+    }
+
+    /**
+     * 返回第 i 个双图形操作的结果，使用编译好的分组与参数.
+     *
+     * @param i      操作序号
+     * @param first  图形1 id
+     * @param second 图形2 id
+     * @return 结果图形 id，分组对的参数为 {@link BinaryOperation#SKIP} 时返回 0
+     */
+    public int applyBinary(int i, int first, int second) {
+        int parameter = parameter(i, firstProfiles[i][first], secondProfiles[i][second]);
+        return parameter == BinaryOperation.SKIP ? 0 : binary[i].apply(first, second, parameter);
+    }
+
+    BinaryOperation binary(int i) {
+        return binary[i];
+    }
+
+    int firstProfile(int i, int id) {
+        return firstProfiles[i][id];
+    }
+
+    int secondProfile(int i, int id) {
+        return secondProfiles[i][id];
+    }
+
+    int parameter(int i, int firstProfile, int secondProfile) {
+        return parameters[i][firstProfile * secondProfileNums[i] + secondProfile];
+    }
+
+    /**
+     * 将图形按第 i 个双图形操作中图形1的分组分组.
+     *
+     * @param i      操作序号
+     * @param shapes 图形集合
+     * @return 分组后的图形
+     */
+    ProfileBuckets firstBuckets(int i, ShapeSet shapes) {
+        int[] profiles = firstProfiles[i];
+        return new ProfileBuckets(shapes, id -> profiles[id], binary[i].getFirstProfileNum());
+    }
+
+    /**
+     * 将图形按第 i 个双图形操作中图形2的分组分组.
+     *
+     * @param i      操作序号
+     * @param shapes 图形集合
+     * @return 分组后的图形
+     */
+    ProfileBuckets secondBuckets(int i, ShapeSet shapes) {
+        int[] profiles = secondProfiles[i];
+        return new ProfileBuckets(shapes, id -> profiles[id], secondProfileNums[i]);
+    }
+}
@@ -0,0 +1,363 @@
+package shapez.calculate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 每个图形最短合成方法的数目.
+ * <p>
+ * 图形的深度为所有合成方法中“最后一步来源图形的最大深度加 1”的最小值，单层图形为 1。
+ * 最短合成方法指：最后一步的来源图形中深度最大的恰好比该图形少 1，且每个来源图形也使用最短合成方法；
+ * 单层图形只有 1 种。因此某图形的数目，是所有满足条件的最后一步（操作、来源图形）的来源图形数目之积的和，
+ * 堆叠的上下两层图形交换后是不同的合成方法，不同操作得到同一结果也是不同的合成方法。
+ * <p>
+ * {@link ShapeClosure} 处理一层时，新图形会立即参与同层后续的堆叠，其步骤数可能小于深度，
+ * 不能作为严格的分层，因此深度取自 {@link OperationClosure}：图形数据库文件中保存了深度时直接读取，
+ * 否则重新逐层计算。之后由 {@link Preimages} 直接构造每个图形的来源图形并累加数目，同层图形并行计算。
+ * 数目增长很快，超出 long 范围时改用 BigInteger 保存，只有这些图形会占用额外的空间。
+ * 来源图形由 {@link Preimages} 按内置操作构造，因此只支持内置操作，不包括 {@link OperationProvider} 提供的操作。
+ *
+ * @author MengLeiFudge
+ */
+public final class DerivationCounts {
+    /**
+     * 魔数，即 "SPZN".
+     */
+    private static final int MAGIC = 0x53505A4E;
+    /**
+     * 格式版本，格式改变时递增.
+     */
+    public static final int VERSION = 2;
+    /**
+     * counts 中表示数目超出 long 范围，需要读取 big 的值.
+     */
+    private static final long OVERFLOW = -1;
+
+    private final Operate[] operates;
+    private final long fingerprint;
+    /**
+     * 每个图形最短合成方法的数目，无法合成时为 0.
+     */
+    private final long[] counts = new long[ShapeClosure.ID_NUM];
+    /**
+     * 每个图形的深度，即所有合成方法中最后一步来源图形的最大深度加 1 的最小值，单层图形为 1，无法合成时为 0.
+     */
+    private final byte[] depths = new byte[ShapeClosure.ID_NUM];
+    private final BigInteger[] big = new BigInteger[ShapeClosure.ID_NUM];
+
+    private DerivationCounts(Operate[] operates, long fingerprint) {
+        this.operates = operates.clone();
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * 计算每个图形最短合成方法的数目.
+     *
+     * @param operates  允许使用的操作
+     * @param threadNum 线程数，为 1 时不使用线程池
+     * @return 最短合成方法的数目
+     */
+    public static DerivationCounts calculate(Operate[] operates, int threadNum) {
+        OperationClosure closure = new OperationClosure(CompiledOperations.of(operates));
+        closure.calculate(threadNum);
+        DerivationCounts result = new DerivationCounts(operates, RuleFingerprint.of(operates));
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            result.depths[id] = (byte) closure.getDepth(id);
+        }
+        result.calculate(threadNum);
+        return result;
+    }
+
+    /**
+     * 使用图形数据库文件中保存的深度，计算每个图形最短合成方法的数目，不再重新计算深度.
+     *
+     * @param database  图形数据库文件，操作与规则指纹取自该文件
+     * @param threadNum 线程数，为 1 时不使用线程池
+     * @return 最短合成方法的数目
+     * @throws IllegalArgumentException 如果文件中没有深度，或深度使用了额外操作
+     */
+    public static DerivationCounts calculate(ShapeDatabaseFile database, int threadNum) {
+        if (!database.hasDepths()) {
+            throw new IllegalArgumentException("图形数据库文件中没有深度");
+        }
+        if (database.getFingerprint() != RuleFingerprint.of(database.getOperates())) {
+            throw new IllegalArgumentException("图形数据库文件的深度使用了额外操作，合成方法数目只支持内置操作");
+        }
+        DerivationCounts result = new DerivationCounts(database.getOperates(), database.getFingerprint());
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            result.depths[id] = (byte) database.getDepth(id);
+        }
+        result.calculate(threadNum);
+        return result;
+    }
+
+    private void calculate(int threadNum) {
+        ForkJoinPool pool = threadNum > 1 ? new ForkJoinPool(threadNum) : null;
+        try {
+            calculate(pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 由已填好的深度计算数目.
+     */
+    private void calculate(ForkJoinPool pool) {
+        boolean stack = List.of(operates).contains(Operate.STACK);
+        Operate[] unary = List.of(operates).stream().filter(x -> x != Operate.STACK).toArray(Operate[]::new);
+        // 按深度分组
+        int maxDepth = 0;
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            maxDepth = Math.max(maxDepth, depths[id]);
+        }
+        int[] levelFrom = new int[maxDepth + 2];
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            levelFrom[depths[id] + 1]++;
+        }
+        for (int depth = 1; depth <= maxDepth + 1; depth++) {
+            levelFrom[depth] += levelFrom[depth - 1];
+        }
+        int[] ids = new int[levelFrom[maxDepth + 1]];
+        int[] cursor = levelFrom.clone();
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            ids[cursor[depths[id]]++] = id;
+        }
+        // 深度比当前层小的图形，堆叠的来源图形只在其中查找
+        ShapeSet below = new ShapeSet();
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            int from = levelFrom[depth];
+            int to = levelFrom[depth + 1];
+            if (depth == 1) {
+                for (int i = from; i < to; i++) {
+                    counts[ids[i]] = 1;
+                }
+            } else {
+                int newDepth = depth;
+                OperationClosure.invoke(pool, to - from,
+                        i -> count(ids[from + i], newDepth, unary, stack ? below : null));
+            }
+            for (int i = from; i < to; i++) {
+                below.add(ids[i]);
+            }
+        }
+    }
+
+    /**
+     * 计算一个图形的数目，来源图形的数目都已计算完毕.
+     *
+     * @param below 深度更小的图形，为 null 时不能堆叠
+     */
+    private void count(int id, int depth, Operate[] unary, ShapeSet below) {
+        int prev = depth - 1;
+        Sum sum = new Sum();
+        for (var x : unary) {
+            Preimages.forEach(x, id, p -> {
+                if (depths[p] == prev) {
+                    sum.add(p);
+                }
+            });
+        }
+        if (below != null) {
+            Preimages.forEachStack(id, below, (top, bottom) -> {
+                if (depths[top] == prev || depths[bottom] == prev) {
+                    sum.add(top, bottom);
+                }
+            });
+        }
+        if (sum.large == null) {
+            counts[id] = sum.small;
+        } else {
+            counts[id] = OVERFLOW;
+            big[id] = sum.large;
+        }
+    }
+
+    /**
+     * 累加数目，超出 long 范围后改用 BigInteger.
+     */
+    private final class Sum {
+        private long small;
+        private BigInteger large;
+
+        void add(int p) {
+            if (counts[p] == OVERFLOW) {
+                add(big[p]);
+            } else {
+                add(counts[p]);
+            }
+        }
+
+        void add(int p1, int p2) {
+            long a = counts[p1];
+            long b = counts[p2];
+            if (a != OVERFLOW && b != OVERFLOW && Math.multiplyHigh(a, b) == 0 && a * b >= 0) {
+                add(a * b);
+            } else {
+                add(getCount(p1).multiply(getCount(p2)));
+            }
+        }
+
+        private void add(long x) {
+            if (large != null) {
+                large = large.add(BigInteger.valueOf(x));
+            } else if (small + x < 0) {
+                large = BigInteger.valueOf(small).add(BigInteger.valueOf(x));
+            } else {
+                small += x;
+            }
+        }
+
+        private void add(BigInteger x) {
+            large = (large != null ? large : BigInteger.valueOf(small)).add(x);
+        }
+    }
+
+    public Operate[] getOperates() {
+        return operates.clone();
+    }
+
+    /**
+     * 返回计算时规则的指纹.
+     *
+     * @return 规则指纹，见 {@link RuleFingerprint}
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * 返回图形最短合成方法的数目.
+     *
+     * @param id 图形 id
+     * @return 数目，无法合成时为 0
+     */
+    public BigInteger getCount(int id) {
+        return counts[id] == OVERFLOW ? big[id] : BigInteger.valueOf(counts[id]);
+    }
+
+    /**
+     * 返回图形最短合成方法的数目，超出 long 范围时返回 {@link Long#MAX_VALUE}.
+     *
+     * @param id 图形 id
+     * @return 数目，无法合成时为 0
+     */
+    public long getSaturatedCount(int id) {
+        return counts[id] == OVERFLOW ? Long.MAX_VALUE : counts[id];
+    }
+
+    /**
+     * 返回图形的深度.
+     *
+     * @param id 图形 id
+     * @return 深度，单层图形为 1，无法合成时为 0
+     */
+    public int getDepth(int id) {
+        return depths[id];
+    }
+
+    /**
+     * 返回图形最短合成方法的数目是否超出 long 范围.
+     *
+     * @param id 图形 id
+     * @return 是否超出 long 范围
+     */
+    public boolean isOverflow(int id) {
+        return counts[id] == OVERFLOW;
+    }
+
+    /**
+     * 保存到文件.
+     * <p>
+     * 文件依次为魔数、格式版本、允许使用的操作（见 {@link Operate#toMask}）、规则指纹（见 {@link RuleFingerprint}）、
+     * 65536 个 byte 的深度、65536 个 long 的数目，
+     * 以及超出 long 范围的图形个数，每个这样的图形依次为 id（char）、数目的字节数与补码字节。
+     * 写入时先写临时文件，再替换原文件。
+     *
+     * @param file 文件
+     * @throws IOException 如果写入文件失败
+     */
+    public void write(File file) throws IOException {
+        Path path = file.toPath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(Operate.toMask(operates));
+            out.writeLong(fingerprint);
+            out.write(depths);
+            int overflowNum = 0;
+            for (long count : counts) {
+                out.writeLong(count);
+                overflowNum += count == OVERFLOW ? 1 : 0;
+            }
+            out.writeInt(overflowNum);
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                if (counts[id] == OVERFLOW) {
+                    byte[] bytes = big[id].toByteArray();
+                    out.writeChar(id);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取文件.
+     *
+     * @param file 文件
+     * @return 最短合成方法的数目
+     * @throws IOException              如果读取文件失败
+     * @throws IllegalArgumentException 如果文件格式或版本不对
+     */
+    public static DerivationCounts read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("不是合成方法数目文件：" + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("合成方法数目文件版本为 " + version + "，当前版本为 " + VERSION);
+            }
+            Operate[] operates = Operate.fromMask(in.readInt());
+            DerivationCounts result = new DerivationCounts(operates, in.readLong());
+            in.readFully(result.depths);
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                result.counts[id] = in.readLong();
+            }
+            int overflowNum = in.readInt();
+            for (int i = 0; i < overflowNum; i++) {
+                int id = in.readChar();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                if (result.counts[id] != OVERFLOW) {
+                    throw new IllegalArgumentException("合成方法数目文件中图形 " + id + " 的数目没有超出 long 范围");
+                }
+                result.big[id] = new BigInteger(bytes);
+            }
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                if (result.counts[id] == OVERFLOW && result.big[id] == null) {
+                    throw new IllegalArgumentException("合成方法数目文件中缺少图形 " + id + " 的数目");
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package shapez.calculate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * 任意层数、部分数的可合成图形计算.
+ * <p>
+ * 原版规格（4 × 4）的 id 只有 65536 个，直接使用查表的 {@link OperationClosure} 与位图，不经过该类的通用流程。
+ * 其他规格的 id 空间可能远大于内存，因此只保存可合成的图形，使用 {@link LongShapeSet}；
+ * 操作由 {@link ShapeGeometry} 按位计算，逐层计算的方式与 {@link OperationClosure} 相同，深度也相同。
+ * <p>
+ * 堆叠需要把每个新图形与所有已知图形配对，图形数目很大时耗时随之平方增长，
+ * 可以用最大深度限制计算范围。
+ *
+ * @author MengLeiFudge
+ */
+public final class GeneralClosure {
+    private static final Logger logger = LoggerFactory.getLogger(GeneralClosure.class);
+    /**
+     * 通用流程支持的每层最大部分数，单层图形都要预先加入.
+     */
+    private static final int MAX_PART_NUM = 24;
+
+    private final ShapeGeometry geometry;
+    private final Operate[] operates;
+    /**
+     * 原版规格时的计算结果.
+     */
+    private OperationClosure dense;
+    private final LongShapeSet shapes = new LongShapeSet();
+    /**
+     * 深度为 d 的图形的编号范围为 [levelEnds[d - 2], levelEnds[d - 1])，深度为 1 时从 0 开始.
+     */
+    private int[] levelEnds = new int[16];
+    private int levelNum;
+
+    /**
+     * 创建计算.
+     *
+     * @param geometry 图形规格
+     * @param operates 允许使用的操作
+     * @throws IllegalArgumentException 如果该规格不支持某个操作，或每层的部分数过多
+     */
+    public GeneralClosure(ShapeGeometry geometry, Operate[] operates) {
+        geometry.check(operates);
+        if (geometry.getPartNum() > MAX_PART_NUM) {
+            throw new IllegalArgumentException("每层的部分数不能超过 " + MAX_PART_NUM + "：" + geometry);
+        }
+        this.geometry = geometry;
+        this.operates = operates.clone();
+    }
+
+    /**
+     * 从所有单层图形开始，逐层计算直至没有新图形产生，或达到最大深度.
+     *
+     * @param depthLimit 最大深度，深度更大的图形视为无法合成
+     * @param threadNum  线程数，只用于原版规格
+     */
+    public void calculate(int depthLimit, int threadNum) {
+        if (geometry.isStandard()) {
+            // 额外操作只定义在原版规格的 id 上，通用流程无法使用，原版规格也只使用内置操作，两种流程的结果相同
+            dense = new OperationClosure(CompiledOperations.of(operates));
+            dense.calculate(threadNum, depthLimit);
+        } else {
+            calculateSparse(depthLimit);
+        }
+    }
+
+    /**
+     * 使用通用流程计算，原版规格也可以使用，用于与查表的结果对比.
+     *
+     * @param depthLimit 最大深度
+     */
+    void calculateSparse(int depthLimit) {
+        boolean stack = List.of(operates).contains(Operate.STACK);
+        Operate[] unary = List.of(operates).stream().filter(x -> x != Operate.STACK).toArray(Operate[]::new);
+        for (long id = 1; id <= geometry.getLayerMask(); id++) {
+            shapes.add(id);
+        }
+        endLevel();
+        for (int depth = 1; depth < depthLimit; depth++) {
+            int from = depth == 1 ? 0 : levelEnds[depth - 2];
+            int to = levelEnds[depth - 1];
+            for (int i = from; i < to; i++) {
+                long id = shapes.get(i);
+                for (var x : unary) {
+                    add(geometry.apply(x, id));
+                }
+                if (!stack) {
+                    continue;
+                }
+                // 同层的两个图形只需配对一次，每次配对计算两种堆叠顺序
+                for (int j = 0; j < to; j++) {
+                    if (j >= from && j < i) {
+                        continue;
+                    }
+                    long other = shapes.get(j);
+                    add(geometry.stack(id, other));
+                    add(geometry.stack(other, id));
+                }
+            }
+            if (shapes.size() == to) {
+                break;
+            }
+            endLevel();
+            logger.info("Depth" + (depth + 1) + " End, num: " + shapes.size());
+        }
+    }
+
+    private void add(long id) {
+        if (id != 0) {
+            shapes.add(id);
+        }
+    }
+
+    private void endLevel() {
+        if (levelNum == levelEnds.length) {
+            levelEnds = Arrays.copyOf(levelEnds, levelNum * 2);
+        }
+        levelEnds[levelNum++] = shapes.size();
+    }
+
+    public ShapeGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * 返回图形能否合成.
+     *
+     * @param id 图形 id
+     * @return 能否合成
+     */
+    public boolean contains(long id) {
+        return getDepth(id) != 0;
+    }
+
+    /**
+     * 返回图形的深度.
+     *
+     * @param id 图形 id
+     * @return 深度，单层图形为 1，无法合成时为 0
+     */
+    public int getDepth(long id) {
+        if (dense != null) {
+            return id >= 0 && id < ShapeClosure.ID_NUM ? dense.getDepth((int) id) : 0;
+        }
+        int index = shapes.indexOf(id);
+        if (index < 0) {
+            return 0;
+        }
+        int depth = 1;
+        while (index >= levelEnds[depth - 1]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * 返回可合成图形的数目.
+     *
+     * @return 图形数目
+     */
+    public int size() {
+        return dense != null ? dense.getShapes().cardinality() : shapes.size();
+    }
+
+    public int getMaxDepth() {
+        return dense != null ? dense.getMaxDepth() : levelNum;
+    }
+
+    /**
+     * 遍历所有可合成图形，原版规格按 id 升序，其他规格按深度升序.
+     *
+     * @param action 对每个图形 id 执行的操作
+     */
+    public void forEach(LongConsumer action) {
+        if (dense != null) {
+            dense.getShapes().forEach(action::accept);
+        } else {
+            shapes.forEach(action);
+        }
+    }
+}
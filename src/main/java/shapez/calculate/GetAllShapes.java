@@ -1,16 +1,19 @@
 package shapez.calculate;
 
-import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONWriter;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static spztool.SettingsAndUtils.THREAD_NUM;
 
 /**
  * 计算所有可合成的图形样式数目，并输出其合成路径.
@@ -27,26 +30,69 @@ import java.util.List;
  */
 public class GetAllShapes {
     private static final Logger logger = LoggerFactory.getLogger(GetAllShapes.class);
-    private static final File SHAPES_FILE = FileUtils.getFile("shape database", "shapes.json");
-    private List<Integer> allShapes;
+    private final RuleProfile profile;
+    /**
+     * 计算时是否从检查点继续.
+     */
+    private final boolean resume;
+    private final File databaseFile;
+    /**
+     * 规则配置的内置操作，以及 {@link OperationProvider} 提供的操作，第一次使用时编译.
+     */
+    private CompiledOperations operations;
+    private ShapeDatabaseFile database;
+    private ShapeSet allShapes;
+    private ShapeIndex index;
+    private DerivationCounts derivationCounts;
+    private final Map<RecipeDatabase.Priority, RecipeDatabase> recipes = new EnumMap<>(RecipeDatabase.Priority.class);
+    private final Map<RecipeDatabase.Priority, ProductionRatios> ratios = new EnumMap<>(RecipeDatabase.Priority.class);
 
     public GetAllShapes() {
+        this(RuleProfile.ALL);
     }
 
+    /**
+     * 使用指定的规则配置计算，结果以配置名称为键保存，已经计算过的配置直接读取.
+     *
+     * @param profile 规则配置
+     */
+    public GetAllShapes(RuleProfile profile) {
+        this(profile, false);
+    }
+
+    /**
+     * 使用指定的规则配置计算，计算过程中每层保存一次检查点.
+     *
+     * @param profile 规则配置
+     * @param resume  本地没有计算结果时，是否从上次中断的检查点继续计算
+     */
+    public GetAllShapes(RuleProfile profile, boolean resume) {
+        this.profile = profile;
+        this.resume = resume;
+        this.databaseFile = getFile("db_" + profile.getName() + ".bin");
+    }
+
+    /**
+     * 读取已保存的计算结果，没有可用的结果时重新计算并保存.
+     *
+     * @throws UncheckedIOException 如果计算后保存或打开图形数据库文件失败
+     */
     public void process() {
-        if (getAllShapesByFile()) {
-            return;
+        if (!getAllShapesByFile()) {
+            getAllShapesByCalculate();
         }
-        getAllShapesByCalculate();
     }
 
     private boolean getAllShapesByFile() {
-        if (SHAPES_FILE.exists()) {
+        if (databaseFile.exists()) {
             try {
-                String allShapesStr = FileUtils.readFileToString(SHAPES_FILE, StandardCharsets.UTF_8);
-                allShapes = JSON.parseArray(allShapesStr, Integer.class);
-                logger.info("num: " + allShapes.size());
+                // 格式、版本、规则指纹不符时不会映射文件，之后重新计算可以直接覆盖
+                database = ShapeDatabaseFile.open(databaseFile, RuleFingerprint.of(getOperations()));
+                allShapes = database.getShapes();
+                logger.info("num: " + allShapes.cardinality());
                 return true;
+            } catch (IllegalArgumentException e) {
+                logger.warn("{} 无法使用，重新计算：{}", databaseFile, e.getMessage());
             } catch (IOException e) {
                 logger.error("", e);
             }
@@ -55,80 +101,205 @@ public class GetAllShapes {
     }
 
     /**
-     * 获取所有的可合成图形id.
+     * 获取所有的可合成图形id及其最优配方，保存为二进制文件，并导出 json、csv 文件供人阅读.
      */
     private void getAllShapesByCalculate() {
         long t1 = System.currentTimeMillis();
-        // 指示获取某个图形需要的最少步骤。索引为id的steps不为0，表示id存在。
-        int[] steps = new int[0x10000];
-        // 可合成图形总数
-        int num = 0;
-        for (int i = 0x0001; i <= 0x000f; i++) {
-            steps[i] = 1;
-            num++;
-        }
-        int currentStep = 1;
-        while (true) {
-            boolean updated = false;
-            for (int id = 0x0001; id <= 0xffff; id++) {
-                if (steps[id] != currentStep) {
-                    continue;
-                }
-                SimpleShape shape = new SimpleShape(id);
-                for (var x : Operate.values()) {
-                    if (x != Operate.STACK) {
-                        SimpleShape shapeNew = shape.process(x);
-                        int newId = shapeNew.id();
-                        if (newId != 0 && steps[newId] == 0) {
-                            steps[newId] = currentStep + 1;
-                            updated = true;
-                            num++;
-                        }
-                    } else {
-                        for (int id2 = 0x0001; id2 <= 0xffff; id2++) {
-                            if (steps[id2] == 0) {
-                                continue;
-                            }
-                            SimpleShape shape2 = new SimpleShape(id2);
-                            SimpleShape shapeNew1 = shape.process(Operate.STACK, shape2);
-                            int stack1 = shapeNew1.id();
-                            if (steps[stack1] == 0) {
-                                steps[stack1] = currentStep + 1;
-                                updated = true;
-                                num++;
-                            }
-                            SimpleShape shapeNew2 = shape2.process(Operate.STACK, shape);
-                            int stack2 = shapeNew2.id();
-                            if (steps[stack2] == 0) {
-                                steps[stack2] = currentStep + 1;
-                                updated = true;
-                                num++;
-                            }
-                        }
-                    }
-                }
-            }
-            if (updated) {
-                logger.info("Step" + currentStep + " End, num: " + num);
-                currentStep++;
-            } else {
-                logger.info("Finish, num: " + num);
-                break;
+        File checkpointFile = getFile("checkpoint_" + profile.getName() + ".bin");
+        ShapeClosure closure = new ShapeClosure(profile, THREAD_NUM);
+        closure.setCheckpointFile(checkpointFile);
+        if (resume && checkpointFile.exists()) {
+            try {
+                closure.resume(checkpointFile);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("", e);
             }
         }
+        closure.calculate();
+        // calculate 返回时检查点已保存完毕；等待时被中断则可能仍在写入，保留检查点
+        if (!Thread.currentThread().isInterrupted()) {
+            FileUtils.deleteQuietly(checkpointFile);
+        }
         long t2 = System.currentTimeMillis();
         logger.info("计算共用时 {} s", (t2 - t1) / 1000.0);
-        allShapes = new ArrayList<>();
-        for (int id = 0x0001; id <= 0xffff; id++) {
-            if (steps[id] != 0) {
-                allShapes.add(id);
+        allShapes = closure.getShapes();
+        // 严格分层的深度，用于之后增加操作时的增量计算，包括额外操作
+        OperationClosure depths = new OperationClosure(getOperations());
+        depths.calculate(THREAD_NUM);
+        // 有旋转对称性时只对旋转等价类的代表计算配方，代价与逐个图形计算相同；
+        // 可合成图形仍使用 ShapeClosure，因为按等价类计算时旋转不计入步骤，得到的步骤数与数据库中的不同
+        boolean byOrbit = RotationTable.symmetry(profile.getOperates()) < 4;
+        for (var priority : RecipeDatabase.Priority.values()) {
+            recipes.put(priority, byOrbit
+                    ? RecipeDatabase.buildByOrbit(profile.getOperates(), priority)
+                    : RecipeDatabase.build(profile.getOperates(), priority));
+        }
+        // 之后的查询都通过图形数据库文件进行，保存失败时不能继续
+        try {
+            ShapeDatabaseFile.write(databaseFile, getOperations(), allShapes, closure.getSteps(),
+                    depths.getDepths(), recipes.values().toArray(new RecipeDatabase[0]));
+            database = ShapeDatabaseFile.open(databaseFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("保存图形数据库文件失败：" + databaseFile, e);
+        }
+        try {
+            allShapes.writeJson(getFile("shapes_" + profile.getName() + ".json"));
+            for (var db : recipes.values()) {
+                db.writeCsv(getFile("db_" + profile.getName() + "_"
+                        + db.getPriority().name().toLowerCase(Locale.ROOT) + ".csv"));
             }
+        } catch (IOException e) {
+            logger.error("", e);
+        }
+    }
+
+    private CompiledOperations getOperations() {
+        if (operations == null) {
+            operations = CompiledOperations.load(profile.getOperates());
         }
+        return operations;
+    }
+
+    private static File getFile(String name) {
+        return FileUtils.getFile("shape database", name);
+    }
+
+    public RuleProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * 返回内存映射的图形数据库文件，可以直接查询单个图形，需要先调用 {@link #process()}.
+     *
+     * @return 图形数据库文件
+     */
+    public ShapeDatabaseFile getDatabase() {
+        return database;
+    }
+
+    /**
+     * 返回所有可合成图形的集合，需要先调用 {@link #process()}.
+     *
+     * @return 可合成图形的集合
+     */
+    public ShapeSet getShapes() {
+        return allShapes;
+    }
+
+    /**
+     * 返回所有可合成图形 id 的流，直接遍历位图，不复制、不装箱，需要先调用 {@link #process()}.
+     * <p>
+     * 按 id 升序，调用 {@link IntStream#parallel()} 后按位图均匀拆分。
+     *
+     * @return 图形 id 的流
+     */
+    public IntStream stream() {
+        return allShapes.stream();
+    }
+
+    /**
+     * 返回所有可合成图形的流，每个图形的步骤数、配方在使用时才从数据库文件读取，需要先调用 {@link #process()}.
+     *
+     * @return 图形的流
+     */
+    public Stream<ShapeEntry> entries() {
+        return stream().mapToObj(id -> new ShapeEntry(database, id));
+    }
+
+    /**
+     * 返回可合成图形与深度的位图索引，需要先调用 {@link #process()}.
+     * <p>
+     * 第一次调用时创建索引。
+     *
+     * @return 位图索引
+     */
+    public ShapeIndex getIndex() {
+        if (index == null) {
+            index = ShapeIndex.of(database);
+        }
+        return index;
+    }
+
+    /**
+     * 返回每个图形最短合成方法的数目.
+     * <p>
+     * 与图形数据库文件保存在同一目录，已经计算过时直接读取，否则计算后保存。
+     * 数目只统计内置操作。已调用 {@link #process()}、图形数据库文件中有深度且没有使用额外操作时，
+     * 直接使用保存的深度，不再重新计算。
+     *
+     * @return 最短合成方法的数目
+     */
+    public DerivationCounts getDerivationCounts() {
+        if (derivationCounts != null) {
+            return derivationCounts;
+        }
+        File file = getFile("counts_" + profile.getName() + ".bin");
+        if (file.exists()) {
+            try {
+                DerivationCounts counts = DerivationCounts.read(file);
+                if (counts.getFingerprint() == RuleFingerprint.of(profile)) {
+                    derivationCounts = counts;
+                    return counts;
+                }
+                logger.warn("{} 的规则指纹与规则配置不同，重新计算", file);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("", e);
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        derivationCounts = database != null && database.hasDepths()
+                && database.getFingerprint() == RuleFingerprint.of(profile)
+                ? DerivationCounts.calculate(database, THREAD_NUM)
+                : DerivationCounts.calculate(profile.getOperates(), THREAD_NUM);
+        logger.info("计算最短合成方法数目共用时 {} s", (System.currentTimeMillis() - t1) / 1000.0);
         try {
-            String allShapesStr = JSON.toJSONString(allShapes, JSONWriter.Feature.PrettyFormat);
-            FileUtils.writeStringToFile(SHAPES_FILE, allShapesStr, StandardCharsets.UTF_8);
+            derivationCounts.write(file);
         } catch (IOException e) {
             logger.error("", e);
         }
+        return derivationCounts;
+    }
+
+    /**
+     * 在另一个规则配置已保存的图形数据库的基础上，增量计算当前规则配置的可合成图形及深度.
+     * <p>
+     * 当前规则配置必须包含 base 的所有操作，只处理新增的操作带来的变化，见 {@link OperationClosure#extend}。
+     * 两者都包括 {@link OperationProvider} 提供的操作。
+     * 适合比较不同规则的可合成图形，不生成配方，也不保存结果。
+     *
+     * @param base 已经计算过的规则配置
+     * @return 当前规则配置的计算结果
+     * @throws IOException              如果读取文件失败
+     * @throws IllegalArgumentException 如果 base 的数据库文件格式、版本、规则指纹不对，或当前规则配置缺少 base 的操作
+     */
+    public OperationClosure extendFrom(RuleProfile base) throws IOException {
+        // 规则指纹由 extend 检查，数据库可能只使用了内置操作
+        ShapeDatabaseFile baseDatabase = ShapeDatabaseFile.open(getFile("db_" + base.getName() + ".bin"));
+        long t1 = System.currentTimeMillis();
+        OperationClosure closure = OperationClosure.extend(baseDatabase, getOperations(), THREAD_NUM);
+        logger.info("增量计算共用时 {} s", (System.currentTimeMillis() - t1) / 1000.0);
+        return closure;
+    }
+
+    /**
+     * 返回所有可合成图形的最优配方，需要先调用 {@link #process()}.
+     * <p>
+     * 从文件读取时，第一次调用才会复制配方。
+     *
+     * @param priority 配方的比较方式
+     * @return 配方数据库
+     */
+    public RecipeDatabase getRecipes(RecipeDatabase.Priority priority) {
+        return recipes.computeIfAbsent(priority, database::getRecipes);
+    }
+
+    /**
+     * 返回所有可合成图形按最优配方生产的比例，需要先调用 {@link #process()}.
+     *
+     * @param priority 配方的比较方式
+     * @return 生产比例
+     */
+    public ProductionRatios getProductionRatios(RecipeDatabase.Priority priority) {
+        return ratios.computeIfAbsent(priority, x -> ProductionRatios.of(getRecipes(x)));
     }
 }
@@ -0,0 +1,53 @@
+package shapez.calculate;
+
+import java.util.Arrays;
+
+/**
+ * long 的最小堆，用于按代价从小到大处理图形，避免 {@link java.util.PriorityQueue} 的装箱开销.
+ *
+ * @author MengLeiFudge
+ */
+final class LongHeap {
+    private long[] queue = new long[1024];
+    private int size;
+
+    void add(long value) {
+        if (size == queue.length) {
+            queue = Arrays.copyOf(queue, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (queue[parent] <= value) {
+                break;
+            }
+            queue[i] = queue[parent];
+            i = parent;
+        }
+        queue[i] = value;
+    }
+
+    long poll() {
+        long result = queue[0];
+        long last = queue[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && queue[child + 1] < queue[child]) {
+                child++;
+            }
+            if (last <= queue[child]) {
+                break;
+            }
+            queue[i] = queue[child];
+            i = child;
+        }
+        queue[i] = last;
+        return result;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
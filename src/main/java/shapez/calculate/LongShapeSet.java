@@ -0,0 +1,140 @@
+package shapez.calculate;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * long 图形 id 的集合，使用开放寻址的哈希表存储，用于无法使用位图的图形规格.
+ * <p>
+ * 图形按加入的顺序编号，可以按编号遍历，也可以由 id 查编号；逐层计算时，同一层的图形编号连续。
+ * 空图形（id 为 0）不能加入集合，哈希表中以 0 表示空位。
+ * 不支持删除，该类不是线程安全的。
+ *
+ * @author MengLeiFudge
+ * @see ShapeSet
+ */
+public final class LongShapeSet {
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /**
+     * 哈希表，0 表示空位.
+     */
+    private long[] keys = new long[INITIAL_CAPACITY];
+    /**
+     * 哈希表中每个 id 的编号.
+     */
+    private int[] indexes = new int[INITIAL_CAPACITY];
+    /**
+     * 按编号排列的 id.
+     */
+    private long[] ids = new long[INITIAL_CAPACITY / 2];
+    private int size;
+
+    /**
+     * 添加图形.
+     *
+     * @param id 图形 id
+     * @return 如果该图形原先不在集合中，返回 true
+     * @throws IllegalArgumentException 如果 id 为 0
+     */
+    public boolean add(long id) {
+        if (id == 0) {
+            throw new IllegalArgumentException("空图形不能加入集合");
+        }
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == id) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        indexes[slot] = size;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+        // 装载因子不超过 1/2
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        keys = new long[capacity];
+        indexes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                indexes[slot] = oldIndexes[i];
+            }
+        }
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public boolean contains(long id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * 返回图形的编号.
+     *
+     * @param id 图形 id
+     * @return 编号，不在集合中时返回 -1
+     */
+    public int indexOf(long id) {
+        if (id == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == id) {
+                return indexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 返回编号为 index 的图形.
+     *
+     * @param index 编号，范围为 0 - size() - 1
+     * @return 图形 id
+     */
+    public long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return ids[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 按编号遍历集合中的图形.
+     *
+     * @param action 对每个图形 id 执行的操作
+     */
+    public void forEach(LongConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(ids[i]);
+        }
+    }
+}
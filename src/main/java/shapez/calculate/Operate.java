@@ -1,5 +1,9 @@
 package shapez.calculate;
 
+import shapez.base.Building;
+
+import java.util.Arrays;
+
 /**
  * 指示图形通过何种处理方式得到.
  * <p>
@@ -49,6 +53,48 @@ public enum Operate {
      */
     STACK;
 
+    /**
+     * 返回执行该操作的建筑类型.
+     *
+     * @return 建筑类型
+     */
+    public Building.BuildingType getBuildingType() {
+        return switch (this) {
+            case LEFT, RIGHT -> Building.BuildingType.CUTTER;
+            case TOP_RIGHT, BOTTOM_RIGHT, BOTTOM_LEFT, TOP_LEFT -> Building.BuildingType.CUTTER_QUAD;
+            case R90 -> Building.BuildingType.ROTATER_CW;
+            case R180 -> Building.BuildingType.ROTATER_180;
+            case R270 -> Building.BuildingType.ROTATER_CCW;
+            case STACK -> Building.BuildingType.STACKER;
+        };
+    }
+
+    /**
+     * 将操作数组编码为位掩码，用于保存到文件.
+     *
+     * @param operates 操作数组
+     * @return 位掩码，第 i 位表示序号为 i 的操作
+     */
+    public static int toMask(Operate[] operates) {
+        int mask = 0;
+        for (var x : operates) {
+            mask |= 1 << x.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * 将位掩码解码为操作数组.
+     *
+     * @param mask 位掩码，第 i 位表示序号为 i 的操作
+     * @return 操作数组，按 {@link #ordinal()} 升序排列
+     */
+    public static Operate[] fromMask(int mask) {
+        return Arrays.stream(values())
+                .filter(x -> (mask & (1 << x.ordinal())) != 0)
+                .toArray(Operate[]::new);
+    }
+
     public static Operate[] values2c1r() {
         return new Operate[]{
                 LEFT,
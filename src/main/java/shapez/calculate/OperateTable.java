@@ -0,0 +1,62 @@
+package shapez.calculate;
+
+/**
+ * 单图形操作的结果表.
+ * <p>
+ * 图形 id 只有 65536 个，因此在类加载时，用 {@link SimpleShapes#apply} 将每种单图形操作
+ * （切割、旋转）对所有 id 的结果预先算好，之后每次操作只需要一次数组读取，
+ * 不再有 switch 分发、可变参数数组及 {@link SimpleShape} 对象的开销。
+ * <p>
+ * 结果 id 不超过 0xffff，使用 char 存储即可，读取时无需处理符号位。
+ *
+ * @author MengLeiFudge
+ */
+public final class OperateTable {
+    private OperateTable() {
+    }
+
+    /**
+     * 结果表，索引为 {@link Operate#ordinal()}，堆叠对应的位置为 null.
+     */
+    private static final char[][] TABLES = new char[Operate.values().length][];
+
+    static {
+        for (var x : Operate.values()) {
+            if (x == Operate.STACK) {
+                continue;
+            }
+            char[] table = new char[ShapeClosure.ID_NUM];
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                table[id] = (char) SimpleShapes.apply(x, id);
+            }
+            TABLES[x.ordinal()] = table;
+        }
+    }
+
+    /**
+     * 返回单图形操作的结果.
+     *
+     * @param operate 单图形操作
+     * @param id      图形 id
+     * @return 结果图形 id
+     * @throws IllegalArgumentException 如果操作是堆叠
+     */
+    public static int apply(Operate operate, int id) {
+        return table(operate)[id];
+    }
+
+    /**
+     * 返回单图形操作的结果表，供循环中直接读取.
+     *
+     * @param operate 单图形操作
+     * @return 结果表，索引为图形 id
+     * @throws IllegalArgumentException 如果操作是堆叠
+     */
+    static char[] table(Operate operate) {
+        char[] table = TABLES[operate.ordinal()];
+        if (table == null) {
+            throw new IllegalArgumentException("堆叠不是单图形操作");
+        }
+        return table;
+    }
+}
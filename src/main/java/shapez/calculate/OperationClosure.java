@@ -0,0 +1,410 @@
+package shapez.calculate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+/**
+ * 使用编译后的任意操作计算所有可合成图形及其深度.
+ * <p>
+ * 从所有单层图形开始逐层计算，上一层图形参与的操作得到的新图形即为本层图形，
+ * 因此图形的深度为所有合成方法中“最后一步来源图形的最大深度加 1”的最小值。
+ * 每层中，单图形操作直接读取结果表；双图形操作把已知图形按两种角色分别分组，
+ * 上一层图形与每组已知图形只需取一次参数，参数为 {@link BinaryOperation#SKIP} 的组整组跳过。
+ * 内置操作与 {@link OperationProvider} 提供的操作使用同一套流程，见 {@link CompiledOperations}。
+ * <p>
+ * 同层图形并行处理，不同线程只会把标记置为 1，结果与调度无关。
+ * 与 {@link ShapeClosure} 相比，可合成图形相同，但深度是严格分层的结果，不会小于其步骤数。
+ * <p>
+ * 在已有结果的基础上增加操作时，可以用 {@link #extend} 增量计算：可合成图形只会增多，深度只会减小，
+ * 原先的深度就是新深度的上界。仍然逐层处理，但每层只计算新操作，以及深度改变过的图形参与的原有操作，
+ * 耗时与变化的多少有关，而不是与全部图形有关。
+ *
+ * @author MengLeiFudge
+ */
+public final class OperationClosure {
+    private static final Logger logger = LoggerFactory.getLogger(OperationClosure.class);
+
+    private final CompiledOperations operations;
+    /**
+     * 每个图形的深度，单层图形为 1，无法合成时为 0.
+     */
+    private final int[] depths = new int[ShapeClosure.ID_NUM];
+    private final ShapeSet known = new ShapeSet();
+    private int maxDepth;
+    /**
+     * 是否计算到没有新图形产生为止，达到最大深度而停止时为 false.
+     */
+    private boolean complete;
+
+    public OperationClosure(CompiledOperations operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * 从所有单层图形开始，逐层计算直至没有新图形产生.
+     *
+     * @param threadNum 线程数，为 1 时不使用线程池
+     */
+    public void calculate(int threadNum) {
+        calculate(threadNum, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 从所有单层图形开始，逐层计算直至没有新图形产生，或达到最大深度.
+     *
+     * @param threadNum  线程数，为 1 时不使用线程池
+     * @param depthLimit 最大深度，深度更大的图形视为无法合成
+     */
+    public void calculate(int threadNum, int depthLimit) {
+        ForkJoinPool pool = threadNum > 1 ? new ForkJoinPool(threadNum) : null;
+        try {
+            calculate(pool, depthLimit);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void calculate(ForkJoinPool pool, int depthLimit) {
+        byte[] marks = new byte[ShapeClosure.ID_NUM];
+        int[] level = new int[ShapeClosure.ID_NUM];
+        int levelSize = 0;
+        for (int id = 0x0001; id <= 0x000f; id++) {
+            depths[id] = 1;
+            level[levelSize++] = id;
+        }
+        int depth = 1;
+        while (levelSize > 0) {
+            maxDepth = depth;
+            for (int i = 0; i < levelSize; i++) {
+                known.add(level[i]);
+            }
+            logger.info("Depth" + depth + " End, num: " + known.cardinality());
+            if (depth >= depthLimit) {
+                return;
+            }
+            int binaryNum = operations.getBinaryNum();
+            ProfileBuckets[] asFirst = new ProfileBuckets[binaryNum];
+            ProfileBuckets[] asSecond = new ProfileBuckets[binaryNum];
+            for (int b = 0; b < binaryNum; b++) {
+                asFirst[b] = operations.firstBuckets(b, known);
+                asSecond[b] = operations.secondBuckets(b, known);
+            }
+            int[] frontier = Arrays.copyOf(level, levelSize);
+            int newDepth = depth + 1;
+            boolean[] unary = allUnary();
+            invoke(pool, frontier.length, i -> mark(frontier[i], newDepth, unary, asFirst, asSecond, marks));
+            depth++;
+            levelSize = 0;
+            for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+                if (marks[id] != 0) {
+                    marks[id] = 0;
+                    depths[id] = depth;
+                    level[levelSize++] = id;
+                }
+            }
+        }
+        complete = true;
+    }
+
+    private boolean[] allUnary() {
+        boolean[] unary = new boolean[operations.getUnaryNum()];
+        Arrays.fill(unary, true);
+        return unary;
+    }
+
+    /**
+     * 在原先规则的计算结果的基础上增加操作.
+     *
+     * @param base       原先规则的计算结果，必须是完整的
+     * @param operations 新的操作，必须包含原先的所有操作（按名称比较）
+     * @param threadNum  线程数，为 1 时不使用线程池
+     * @return 新规则的计算结果，与直接计算的结果相同
+     * @throws IllegalArgumentException 如果原先的结果不完整，或新的操作缺少原先的操作
+     */
+    public static OperationClosure extend(OperationClosure base, CompiledOperations operations, int threadNum) {
+        if (!base.complete) {
+            throw new IllegalArgumentException("原先的计算结果不完整，最大深度为 " + base.maxDepth);
+        }
+        Set<String> names = new HashSet<>();
+        for (int u = 0; u < base.operations.getUnaryNum(); u++) {
+            names.add(base.operations.getUnaryName(u));
+        }
+        for (int b = 0; b < base.operations.getBinaryNum(); b++) {
+            names.add(base.operations.getBinaryName(b));
+        }
+        OperationClosure result = new OperationClosure(operations);
+        System.arraycopy(base.depths, 0, result.depths, 0, ShapeClosure.ID_NUM);
+        result.extend(names, threadNum);
+        return result;
+    }
+
+    /**
+     * 在保存的图形数据库的基础上增加操作，数据库中的深度即为原先规则的计算结果.
+     * <p>
+     * 数据库的深度可以只使用其中的内置操作计算，也可以同时使用了与新的操作相同的额外操作，由规则指纹区分。
+     *
+     * @param base       原先规则的图形数据库文件
+     * @param operations 新的操作，必须包含原先的所有操作（按名称比较）
+     * @param threadNum  线程数，为 1 时不使用线程池
+     * @return 新规则的计算结果，与直接计算的结果相同
+     * @throws IllegalArgumentException 如果数据库中没有深度，规则指纹与以上两种情况都不一致，或新的操作缺少原先的操作
+     */
+    public static OperationClosure extend(ShapeDatabaseFile base, CompiledOperations operations, int threadNum) {
+        if (!base.hasDepths()) {
+            throw new IllegalArgumentException("图形数据库文件中没有深度");
+        }
+        Set<String> names = new HashSet<>();
+        for (var x : base.getOperates()) {
+            names.add(x.name());
+        }
+        if (base.getFingerprint() != RuleFingerprint.of(base.getOperates())) {
+            CompiledOperations baseOperations = operations.withOperates(base.getOperates());
+            long fingerprint = RuleFingerprint.of(baseOperations);
+            if (base.getFingerprint() != fingerprint) {
+                throw new IllegalArgumentException("图形数据库文件的规则指纹为 " + RuleFingerprint.toString(base.getFingerprint())
+                        + "，当前规则的指纹为 " + RuleFingerprint.toString(fingerprint));
+            }
+            for (int u = 0; u < baseOperations.getUnaryNum(); u++) {
+                names.add(baseOperations.getUnaryName(u));
+            }
+            for (int b = 0; b < baseOperations.getBinaryNum(); b++) {
+                names.add(baseOperations.getBinaryName(b));
+            }
+        }
+        OperationClosure result = new OperationClosure(operations);
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            result.depths[id] = base.getDepth(id);
+        }
+        result.extend(names, threadNum);
+        return result;
+    }
+
+    /**
+     * depths 中已经是原先规则的深度，只计算新操作带来的变化.
+     *
+     * @param names 原先的操作名称
+     */
+    private void extend(Set<String> names, int threadNum) {
+        boolean[] addedUnary = new boolean[operations.getUnaryNum()];
+        for (int u = 0; u < addedUnary.length; u++) {
+            addedUnary[u] = !names.remove(operations.getUnaryName(u));
+        }
+        boolean[] addedBinary = new boolean[operations.getBinaryNum()];
+        for (int b = 0; b < addedBinary.length; b++) {
+            addedBinary[b] = !names.remove(operations.getBinaryName(b));
+        }
+        if (!names.isEmpty()) {
+            throw new IllegalArgumentException("新的操作缺少原先的操作：" + List.copyOf(names));
+        }
+        ForkJoinPool pool = threadNum > 1 ? new ForkJoinPool(threadNum) : null;
+        try {
+            extend(pool, addedUnary, addedBinary);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 逐层处理，处理深度为 d 的图形时，深度不超过 d 的图形都已是最终结果.
+     * <p>
+     * 新深度为 d + 1 的图形，其最优合成方法中来源图形的最大深度为 d，可分为以下几种情况：
+     * <ul>
+     *     <li>使用新操作：与直接计算相同，深度为 d 的图形与所有深度不超过 d 的图形计算</li>
+     *     <li>使用原有操作，来源图形的深度都没有改变：原先的深度已经是 d + 1，不需要处理</li>
+     *     <li>使用原有操作，深度为 d 的来源图形改变过：该图形与所有深度不超过 d 的图形计算</li>
+     *     <li>使用原有操作，只有深度小于 d 的来源图形改变过：深度为 d 的其他图形与这些改变过的图形计算</li>
+     * </ul>
+     */
+    private void extend(ForkJoinPool pool, boolean[] addedUnary, boolean[] addedBinary) {
+        int binaryNum = operations.getBinaryNum();
+        boolean anyAdded = hasAdded(addedUnary) || hasAdded(addedBinary);
+        boolean[] unary = allUnary();
+        // 深度改变过的图形，以及其中深度小于当前层的图形
+        ShapeSet improved = new ShapeSet();
+        ShapeSet changedBelow = new ShapeSet();
+        byte[] marks = new byte[ShapeClosure.ID_NUM];
+        int[] changed = new int[ShapeClosure.ID_NUM];
+        int[] unchanged = new int[ShapeClosure.ID_NUM];
+        for (int depth = 1; ; depth++) {
+            int changedSize = 0;
+            int unchangedSize = 0;
+            for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+                if (depths[id] == depth) {
+                    known.add(id);
+                    if (improved.contains(id)) {
+                        changed[changedSize++] = id;
+                    } else {
+                        unchanged[unchangedSize++] = id;
+                    }
+                }
+            }
+            if (changedSize + unchangedSize == 0) {
+                break;
+            }
+            maxDepth = depth;
+            logger.info("Depth" + depth + " End, num: " + known.cardinality() + ", changed: " + improved.cardinality());
+            ProfileBuckets[] knownFirst = new ProfileBuckets[binaryNum];
+            ProfileBuckets[] knownSecond = new ProfileBuckets[binaryNum];
+            ProfileBuckets[] restFirst = new ProfileBuckets[binaryNum];
+            ProfileBuckets[] restSecond = new ProfileBuckets[binaryNum];
+            for (int b = 0; b < binaryNum; b++) {
+                if (changedSize > 0 || addedBinary[b]) {
+                    knownFirst[b] = operations.firstBuckets(b, known);
+                    knownSecond[b] = operations.secondBuckets(b, known);
+                }
+                if (addedBinary[b]) {
+                    restFirst[b] = knownFirst[b];
+                    restSecond[b] = knownSecond[b];
+                } else if (!changedBelow.isEmpty()) {
+                    restFirst[b] = operations.firstBuckets(b, changedBelow);
+                    restSecond[b] = operations.secondBuckets(b, changedBelow);
+                }
+            }
+            int newDepth = depth + 1;
+            int[] changedLevel = Arrays.copyOf(changed, changedSize);
+            invoke(pool, changedSize, i -> mark(changedLevel[i], newDepth, unary, knownFirst, knownSecond, marks));
+            // 深度未改变的图形只需计算新操作，以及与改变过的图形之间的原有操作
+            if (anyAdded || !changedBelow.isEmpty()) {
+                int[] unchangedLevel = Arrays.copyOf(unchanged, unchangedSize);
+                invoke(pool, unchangedSize, i -> mark(unchangedLevel[i], newDepth, addedUnary, restFirst, restSecond, marks));
+            }
+            for (int id : changedLevel) {
+                changedBelow.add(id);
+            }
+            for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+                if (marks[id] != 0) {
+                    marks[id] = 0;
+                    depths[id] = newDepth;
+                    improved.add(id);
+                }
+            }
+        }
+        complete = true;
+    }
+
+    private static boolean hasAdded(boolean[] added) {
+        for (boolean x : added) {
+            if (x) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 标记上一层图形参与的操作得到的、深度未知或大于 newDepth 的图形.
+     *
+     * @param unary    需要计算的单图形操作
+     * @param asFirst  每个双图形操作中作为图形1的分组，为 null 时不计算该操作
+     * @param asSecond 每个双图形操作中作为图形2的分组
+     */
+    private void mark(int id, int newDepth, boolean[] unary, ProfileBuckets[] asFirst, ProfileBuckets[] asSecond,
+                      byte[] marks) {
+        for (int u = 0; u < unary.length; u++) {
+            if (!unary[u]) {
+                continue;
+            }
+            int r = operations.applyUnary(u, id);
+            if (depths[r] == 0 || depths[r] > newDepth) {
+                marks[r] = 1;
+            }
+        }
+        for (int b = 0; b < asFirst.length; b++) {
+            if (asFirst[b] == null) {
+                continue;
+            }
+            BinaryOperation x = operations.binary(b);
+            // 作为图形1，与每组图形2的参数相同
+            int firstProfile = operations.firstProfile(b, id);
+            ProfileBuckets seconds = asSecond[b];
+            for (int g = 0; g < seconds.size(); g++) {
+                int parameter = operations.parameter(b, firstProfile, seconds.profile(g));
+                if (parameter == BinaryOperation.SKIP) {
+                    continue;
+                }
+                for (int i = seconds.from(g); i < seconds.to(g); i++) {
+                    int r = x.apply(id, seconds.id(i), parameter);
+                    if (depths[r] == 0 || depths[r] > newDepth) {
+                        marks[r] = 1;
+                    }
+                }
+            }
+            // 作为图形2，与每组图形1的参数相同
+            int secondProfile = operations.secondProfile(b, id);
+            ProfileBuckets firsts = asFirst[b];
+            for (int g = 0; g < firsts.size(); g++) {
+                int parameter = operations.parameter(b, firsts.profile(g), secondProfile);
+                if (parameter == BinaryOperation.SKIP) {
+                    continue;
+                }
+                for (int i = firsts.from(g); i < firsts.to(g); i++) {
+                    int r = x.apply(firsts.id(i), id, parameter);
+                    if (depths[r] == 0 || depths[r] > newDepth) {
+                        marks[r] = 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 将 [0, size) 拆分后并行执行，没有线程池时依次执行.
+     */
+    static void invoke(ForkJoinPool pool, int size, IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < size; i++) {
+                action.accept(i);
+            }
+            return;
+        }
+        int grain = Math.max(1, size / (pool.getParallelism() * 16));
+        pool.invoke(new ParallelExpander.RangeTask(0, size, grain, action));
+    }
+
+    public CompiledOperations getOperations() {
+        return operations;
+    }
+
+    /**
+     * 返回所有可合成图形的集合.
+     *
+     * @return 可合成图形的集合
+     */
+    public ShapeSet getShapes() {
+        return known;
+    }
+
+    /**
+     * 返回图形的深度.
+     *
+     * @param id 图形 id
+     * @return 深度，单层图形为 1，无法合成时为 0
+     */
+    public int getDepth(int id) {
+        return depths[id];
+    }
+
+    /**
+     * 返回每个图形的深度.
+     *
+     * @return 深度表，索引为图形 id
+     */
+    public int[] getDepths() {
+        return depths;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+}
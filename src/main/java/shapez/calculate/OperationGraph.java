@@ -0,0 +1,358 @@
+package shapez.calculate;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * 图形之间的操作图，用于查询“一步能得到什么”与“什么一步能得到它”.
+ * <p>
+ * 图的结点为给定图形集合中的图形：
+ * <ul>
+ *     <li>单图形操作的边按操作分别存储为压缩稀疏行（CSR）：正向为 offsets 与 targets，
+ *     图形 id 的出边为 targets[offsets[id], offsets[id + 1])；反向同理，按结果图形分组</li>
+ *     <li>堆叠的边不实际存储（可达图形对约有二十亿个），正向查询时将集合按列高度组合分组（见 {@link ProfileBuckets}），
+ *     每组只需查一次偏移；反向查询时直接拆分结果图形的层与列，见 {@link Preimages#forEachStack}</li>
+ * </ul>
+ * 结果为空、结果与参与操作的某个图形相同（如上层图形被完全挤出）、结果或参与操作的图形不在集合中的边都被忽略。
+ *
+ * @author MengLeiFudge
+ */
+public final class OperationGraph {
+    private final ShapeSet shapes;
+    private final Operate[] unary;
+    private final boolean stack;
+    /**
+     * 正向边的 CSR，索引为 {@link Operate#ordinal()}.
+     */
+    private final int[][] forwardOffsets = new int[Operate.values().length][];
+    private final char[][] forwardTargets = new char[Operate.values().length][];
+    /**
+     * 反向边的 CSR，索引为 {@link Operate#ordinal()}.
+     */
+    private final int[][] backwardOffsets = new int[Operate.values().length][];
+    private final char[][] backwardSources = new char[Operate.values().length][];
+    private final ProfileBuckets asBottom;
+    private final ProfileBuckets asTop;
+
+    /**
+     * 在所有非空图形上构建操作图.
+     *
+     * @param operates 允许使用的操作
+     */
+    public OperationGraph(Operate[] operates) {
+        this(allShapes(), operates);
+    }
+
+    /**
+     * 在给定的图形集合上构建操作图.
+     *
+     * @param shapes   图形集合，通常为所有可合成图形
+     * @param operates 允许使用的操作
+     */
+    public OperationGraph(ShapeSet shapes, Operate[] operates) {
+        this.shapes = shapes.copy();
+        this.shapes.remove(0);
+        EnumSet<Operate> set = EnumSet.noneOf(Operate.class);
+        set.addAll(List.of(operates));
+        this.stack = set.remove(Operate.STACK);
+        this.unary = set.toArray(new Operate[0]);
+        int[] ids = this.shapes.toArray();
+        for (var x : unary) {
+            char[] table = OperateTable.table(x);
+            int[] offsets = new int[ShapeClosure.ID_NUM + 1];
+            int[] counts = new int[ShapeClosure.ID_NUM + 1];
+            int edgeNum = 0;
+            for (int id : ids) {
+                int result = table[id];
+                if (isEdge(id, result)) {
+                    offsets[id + 1] = 1;
+                    counts[result + 1]++;
+                    edgeNum++;
+                }
+            }
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                offsets[id + 1] += offsets[id];
+                counts[id + 1] += counts[id];
+            }
+            char[] targets = new char[edgeNum];
+            char[] sources = new char[edgeNum];
+            int[] cursor = counts.clone();
+            // ids 升序，因此每组内的来源图形也是升序
+            for (int id : ids) {
+                int result = table[id];
+                if (isEdge(id, result)) {
+                    targets[offsets[id]] = (char) result;
+                    sources[cursor[result]++] = (char) id;
+                }
+            }
+            forwardOffsets[x.ordinal()] = offsets;
+            forwardTargets[x.ordinal()] = targets;
+            backwardOffsets[x.ordinal()] = counts;
+            backwardSources[x.ordinal()] = sources;
+        }
+        this.asBottom = stack ? new ProfileBuckets(this.shapes, true) : null;
+        this.asTop = stack ? new ProfileBuckets(this.shapes, false) : null;
+    }
+
+    private static ShapeSet allShapes() {
+        ShapeSet set = new ShapeSet();
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    private boolean isEdge(int id, int result) {
+        return result != 0 && result != id && shapes.contains(result);
+    }
+
+    /**
+     * 返回图中的图形.
+     *
+     * @return 图形集合的副本
+     */
+    public ShapeSet getShapes() {
+        return shapes.copy();
+    }
+
+    /**
+     * 返回单图形操作的结果.
+     *
+     * @param operate 单图形操作
+     * @param id      图形 id
+     * @return 结果图形 id，没有对应的边时为 0
+     * @throws IllegalArgumentException 如果图中不含该操作
+     */
+    public int next(Operate operate, int id) {
+        int[] offsets = forwardOffsets(operate);
+        int from = offsets[id];
+        return from == offsets[id + 1] ? 0 : forwardTargets[operate.ordinal()][from];
+    }
+
+    /**
+     * 返回经过单图形操作后得到该图形的所有图形.
+     *
+     * @param operate 单图形操作
+     * @param id      结果图形 id
+     * @return 来源图形 id，升序
+     * @throws IllegalArgumentException 如果图中不含该操作
+     */
+    public int[] previous(Operate operate, int id) {
+        int[] offsets = backwardOffsets(operate);
+        char[] sources = backwardSources[operate.ordinal()];
+        int[] ret = new int[offsets[id + 1] - offsets[id]];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = sources[offsets[id] + i];
+        }
+        return ret;
+    }
+
+    private int[] forwardOffsets(Operate operate) {
+        int[] offsets = forwardOffsets[operate.ordinal()];
+        if (offsets == null) {
+            throw new IllegalArgumentException("操作图中没有单图形操作 " + operate);
+        }
+        return offsets;
+    }
+
+    private int[] backwardOffsets(Operate operate) {
+        forwardOffsets(operate);
+        return backwardOffsets[operate.ordinal()];
+    }
+
+    /**
+     * 对该图形与图中每个图形堆叠（分别作为上层、下层）的结果执行操作.
+     * <p>
+     * 同一个结果可能出现多次。
+     *
+     * @param id     图形 id
+     * @param action 对每个结果图形 id 执行的操作
+     */
+    public void forEachStackResult(int id, IntConsumer action) {
+        if (!stack) {
+            return;
+        }
+        int topProfile = StackTable.topProfile(id);
+        for (int b = 0; b < asBottom.size(); b++) {
+            int shift = StackTable.shift(topProfile, asBottom.profile(b));
+            if (shift == StackTable.SHIFT_OUT) {
+                continue;
+            }
+            int part = (id << shift) & 0xFFFF;
+            if (part == 0) {
+                continue;
+            }
+            for (int i = asBottom.from(b); i < asBottom.to(b); i++) {
+                int result = asBottom.id(i) | part;
+                if (result != id && shapes.contains(result)) {
+                    action.accept(result);
+                }
+            }
+        }
+        int bottomProfile = StackTable.bottomProfile(id);
+        for (int t = 0; t < asTop.size(); t++) {
+            int shift = StackTable.shift(asTop.profile(t), bottomProfile);
+            if (shift == StackTable.SHIFT_OUT) {
+                continue;
+            }
+            for (int i = asTop.from(t); i < asTop.to(t); i++) {
+                int result = id | ((asTop.id(i) << shift) & 0xFFFF);
+                if (result != id && shapes.contains(result)) {
+                    action.accept(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * 对图中所有堆叠后得到该图形的图形对执行操作.
+     *
+     * @param id     结果图形 id
+     * @param action 对每对（上层图形 id，下层图形 id）执行的操作
+     * @see Preimages#forEachStack(int, ShapeSet, StackPairConsumer)
+     */
+    public void forEachStackSource(int id, StackPairConsumer action) {
+        if (stack) {
+            Preimages.forEachStack(id, shapes, action);
+        }
+    }
+
+    /**
+     * 返回该图形一步可以得到的所有图形.
+     *
+     * @param id 图形 id
+     * @return 图形集合
+     */
+    public ShapeSet successors(int id) {
+        return forward(id, 1);
+    }
+
+    /**
+     * 返回一步可以得到该图形的所有图形，堆叠时包括上层图形与下层图形.
+     *
+     * @param id 图形 id
+     * @return 图形集合
+     */
+    public ShapeSet predecessors(int id) {
+        return backward(id, 1);
+    }
+
+    /**
+     * 返回从该图形出发，不超过 hops 步可以得到的所有图形（不含自身）.
+     * <p>
+     * 每个图形只展开一次。允许堆叠时，每个图形的展开需要遍历整个集合，
+     * 两步以上的邻域通常已包含大部分图形，耗时与邻域大小成正比；
+     * 需要更远的邻域时，可以用 {@link #forward(int, int, Operate...)} 只沿部分操作查询。
+     *
+     * @param id   图形 id
+     * @param hops 步数
+     * @return 图形集合
+     */
+    public ShapeSet forward(int id, int hops) {
+        return neighbourhood(id, hops, true, unary, stack);
+    }
+
+    /**
+     * 返回从该图形出发，只使用给定的操作，不超过 hops 步可以得到的所有图形（不含自身）.
+     *
+     * @param id       图形 id
+     * @param hops     步数
+     * @param operates 使用的操作，必须都在图中
+     * @return 图形集合
+     * @throws IllegalArgumentException 如果图中不含某个操作
+     */
+    public ShapeSet forward(int id, int hops, Operate... operates) {
+        return neighbourhood(id, hops, true, unaryOf(operates), stackOf(operates));
+    }
+
+    /**
+     * 返回不超过 hops 步可以得到该图形的所有图形（不含自身），堆叠时包括上层图形与下层图形.
+     * <p>
+     * 与 {@link #forward(int, int)} 相同，允许堆叠时两步以上的邻域通常已包含大部分图形。
+     *
+     * @param id   图形 id
+     * @param hops 步数
+     * @return 图形集合
+     */
+    public ShapeSet backward(int id, int hops) {
+        return neighbourhood(id, hops, false, unary, stack);
+    }
+
+    /**
+     * 返回只使用给定的操作，不超过 hops 步可以得到该图形的所有图形（不含自身）.
+     *
+     * @param id       图形 id
+     * @param hops     步数
+     * @param operates 使用的操作，必须都在图中
+     * @return 图形集合
+     * @throws IllegalArgumentException 如果图中不含某个操作
+     */
+    public ShapeSet backward(int id, int hops, Operate... operates) {
+        return neighbourhood(id, hops, false, unaryOf(operates), stackOf(operates));
+    }
+
+    private Operate[] unaryOf(Operate[] operates) {
+        EnumSet<Operate> set = EnumSet.noneOf(Operate.class);
+        set.addAll(List.of(operates));
+        set.remove(Operate.STACK);
+        for (var x : set) {
+            forwardOffsets(x);
+        }
+        return set.toArray(new Operate[0]);
+    }
+
+    private boolean stackOf(Operate[] operates) {
+        boolean ret = List.of(operates).contains(Operate.STACK);
+        if (ret && !stack) {
+            throw new IllegalArgumentException("操作图中没有堆叠");
+        }
+        return ret;
+    }
+
+    private ShapeSet neighbourhood(int id, int hops, boolean forward, Operate[] unary, boolean stack) {
+        ShapeSet visited = new ShapeSet();
+        visited.add(id);
+        int[] frontier = {id};
+        int[] next = new int[ShapeClosure.ID_NUM];
+        for (int step = 0; step < hops && frontier.length > 0; step++) {
+            int[] size = new int[1];
+            IntConsumer claim = x -> {
+                if (visited.add(x)) {
+                    next[size[0]++] = x;
+                }
+            };
+            for (int current : frontier) {
+                for (var x : unary) {
+                    if (forward) {
+                        int[] offsets = forwardOffsets[x.ordinal()];
+                        if (offsets[current] != offsets[current + 1]) {
+                            claim.accept(forwardTargets[x.ordinal()][offsets[current]]);
+                        }
+                    } else {
+                        int[] offsets = backwardOffsets[x.ordinal()];
+                        char[] sources = backwardSources[x.ordinal()];
+                        for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                            claim.accept(sources[i]);
+                        }
+                    }
+                }
+                if (!stack) {
+                    continue;
+                }
+                if (forward) {
+                    forEachStackResult(current, claim);
+                } else {
+                    forEachStackSource(current, (top, bottom) -> {
+                        claim.accept(top);
+                        claim.accept(bottom);
+                    });
+                }
+            }
+            frontier = Arrays.copyOf(next, size[0]);
+        }
+        visited.remove(id);
+        return visited;
+    }
+}
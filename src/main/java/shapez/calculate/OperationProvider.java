@@ -0,0 +1,21 @@
+package shapez.calculate;
+
+import java.util.List;
+
+/**
+ * 提供额外操作的服务接口，通过 {@link java.util.ServiceLoader} 加载.
+ * <p>
+ * 实现类在 {@code META-INF/services/shapez.calculate.OperationProvider} 中登记后，
+ * {@link CompiledOperations#load} 会把其中的操作与内置操作一起编译，不需要修改 {@link Operate}。
+ *
+ * @author MengLeiFudge
+ */
+public interface OperationProvider {
+    default List<UnaryOperation> getUnaryOperations() {
+        return List.of();
+    }
+
+    default List<BinaryOperation> getBinaryOperations() {
+        return List.of();
+    }
+}
@@ -0,0 +1,191 @@
+package shapez.calculate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 只对旋转等价类的代表进行计算的可合成图形计算.
+ * <p>
+ * 允许旋转时，图形的每个旋转都可以直接得到，因此可以把一个等价类看作一个整体：
+ * 对代表的每个旋转进行单图形操作；堆叠时，由于旋转与堆叠可交换，
+ * 两个等价类之间只需计算代表 a 旋转 d 次后分别作为上层、下层与代表 b 堆叠这 8 种情况，
+ * 结果再换成其代表。需要处理的图形与图形对都约为 {@link ShapeClosure} 的四分之一。
+ * <p>
+ * 这里的步骤数是等价类的步骤数，旋转不计入步骤，因此不一定等于 {@link ShapeClosure} 中图形的步骤数。
+ *
+ * @author MengLeiFudge
+ * @see RotationTable
+ */
+public class OrbitClosure {
+    private static final Logger logger = LoggerFactory.getLogger(OrbitClosure.class);
+
+    /**
+     * 等价类的步骤数，索引为代表的 id，值为 0 表示该等价类无法合成.
+     */
+    private final int[] steps = new int[ShapeClosure.ID_NUM];
+    /**
+     * 已知的代表.
+     */
+    private final ShapeSet known = new ShapeSet();
+    private final int[] next = new int[ShapeClosure.ID_NUM];
+    private int nextSize;
+    /**
+     * 除旋转以外的单图形操作.
+     */
+    private final Operate[] unary;
+    private final boolean stack;
+    private int maxStep;
+
+    /**
+     * 创建计算.
+     *
+     * @param operates 允许使用的操作，必须包含顺时针或逆时针旋转 90 度
+     * @throws IllegalArgumentException 如果不能旋转到任意角度
+     */
+    public OrbitClosure(Operate[] operates) {
+        List<Operate> list = List.of(operates);
+        if (!list.contains(Operate.R90) && !list.contains(Operate.R270)) {
+            throw new IllegalArgumentException("按旋转等价类计算需要允许旋转 90 度");
+        }
+        this.unary = list.stream()
+                .filter(x -> x != Operate.STACK && x != Operate.R90 && x != Operate.R180 && x != Operate.R270)
+                .toArray(Operate[]::new);
+        this.stack = list.contains(Operate.STACK);
+    }
+
+    /**
+     * 从所有单层图形开始，逐层计算直至没有新的等价类产生.
+     */
+    public void calculate() {
+        for (int id = 0x0001; id <= 0x000f; id++) {
+            claim(id, 1);
+        }
+        int currentStep = 1;
+        while (true) {
+            int[] frontier = Arrays.copyOf(next, nextSize);
+            Arrays.sort(frontier);
+            nextSize = 0;
+            expand(frontier, currentStep);
+            if (nextSize == 0) {
+                logger.info("Finish, orbits: " + known.cardinality());
+                break;
+            }
+            logger.info("Step" + currentStep + " End, orbits: " + known.cardinality());
+            currentStep++;
+        }
+        maxStep = currentStep;
+    }
+
+    private void expand(int[] frontier, int currentStep) {
+        int newStep = currentStep + 1;
+        // 本层开始前已知的代表，同层的两个代表只需配对一次
+        ProfileBuckets asBottom = stack ? new ProfileBuckets(known, true) : null;
+        ProfileBuckets asTop = stack ? new ProfileBuckets(known, false) : null;
+        for (int id : frontier) {
+            for (int k = 0; k < 4; k++) {
+                int rotated = RotationTable.rotate(id, k);
+                for (var x : unary) {
+                    claim(OperateTable.apply(x, rotated), newStep);
+                }
+            }
+        }
+        if (!stack) {
+            return;
+        }
+        for (int id : frontier) {
+            for (int d = 0; d < 4; d++) {
+                int rotated = RotationTable.rotate(id, d);
+                int topProfile = StackTable.topProfile(rotated);
+                for (int b = 0; b < asBottom.size(); b++) {
+                    int shift = StackTable.shift(topProfile, asBottom.profile(b));
+                    if (shift == StackTable.SHIFT_OUT) {
+                        continue;
+                    }
+                    int part = (rotated << shift) & 0xFFFF;
+                    for (int i = asBottom.from(b); i < asBottom.to(b); i++) {
+                        int id2 = asBottom.id(i);
+                        if (id2 < id && steps[id2] == currentStep) {
+                            continue;
+                        }
+                        claim(id2 | part, newStep);
+                    }
+                }
+                int bottomProfile = StackTable.bottomProfile(rotated);
+                for (int t = 0; t < asTop.size(); t++) {
+                    int shift = StackTable.shift(asTop.profile(t), bottomProfile);
+                    if (shift == StackTable.SHIFT_OUT) {
+                        continue;
+                    }
+                    for (int i = asTop.from(t); i < asTop.to(t); i++) {
+                        int id2 = asTop.id(i);
+                        if (id2 < id && steps[id2] == currentStep) {
+                            continue;
+                        }
+                        claim(rotated | ((id2 << shift) & 0xFFFF), newStep);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 如果图形所在的等价类尚未得到，记录其步骤数，并将其代表加入下一层前沿.
+     */
+    private void claim(int id, int step) {
+        if (id == 0) {
+            return;
+        }
+        id = RotationTable.canonical(id);
+        if (steps[id] != 0) {
+            return;
+        }
+        steps[id] = step;
+        known.add(id);
+        next[nextSize++] = id;
+    }
+
+    public boolean contains(int id) {
+        return steps[RotationTable.canonical(id)] != 0;
+    }
+
+    /**
+     * 返回图形所在等价类的步骤数.
+     *
+     * @param id 图形 id
+     * @return 步骤数，无法合成时为 0
+     */
+    public int getStep(int id) {
+        return steps[RotationTable.canonical(id)];
+    }
+
+    /**
+     * 返回所有可合成等价类的代表.
+     *
+     * @return 代表的集合
+     */
+    public ShapeSet getOrbits() {
+        return known.copy();
+    }
+
+    /**
+     * 返回所有可合成图形的集合，即所有可合成等价类的全部成员.
+     *
+     * @return 可合成图形的集合
+     */
+    public ShapeSet getShapes() {
+        ShapeSet shapes = new ShapeSet();
+        known.forEach(id -> {
+            for (int k = 0; k < 4; k++) {
+                shapes.add(RotationTable.rotate(id, k));
+            }
+        });
+        return shapes;
+    }
+
+    public int getMaxStep() {
+        return maxStep;
+    }
+}
@@ -0,0 +1,158 @@
+package shapez.calculate;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 只对旋转等价类计算的配方数据库构建.
+ * <p>
+ * 操作集合具有旋转对称性时（见 {@link RotationTable#symmetry}），把一个配方的每一步都旋转同样的角度，
+ * 就得到旋转后图形的配方，且代价相同。因此同一等价类的成员代价相同，只需对代表计算配方，
+ * 堆叠时两个等价类之间只需计算代表 a 旋转后分别作为上层、下层与代表 b 堆叠的情况。
+ * 计算完毕后，其余成员的配方由代表的配方旋转得到，结果与 {@link RecipeDatabase#build} 的代价完全相同。
+ *
+ * @author MengLeiFudge
+ * @see OrbitClosure
+ */
+final class OrbitRecipeBuilder {
+    private final RecipeDatabase db;
+    /**
+     * 旋转步长，等价类的成员为代表顺时针旋转 step 的整数倍个 90 度.
+     */
+    private final int step;
+    private final Operate[] unary;
+    private final boolean stack;
+    private final LongHeap heap = new LongHeap();
+    private final ShapeSet done = new ShapeSet();
+    /**
+     * 代表的配方，索引为代表的 id.
+     */
+    private final short[] materials = new short[ShapeClosure.ID_NUM];
+    private final short[] operations = new short[ShapeClosure.ID_NUM];
+    private final byte[] operate = new byte[ShapeClosure.ID_NUM];
+    private final char[] parent1 = new char[ShapeClosure.ID_NUM];
+    private final char[] parent2 = new char[ShapeClosure.ID_NUM];
+    /**
+     * 已确定的代表，按列高度组合分组.
+     */
+    private final StackPartners partners = new StackPartners();
+
+    /**
+     * 创建构建.
+     *
+     * @param db 空的配方数据库
+     * @throws IllegalArgumentException 如果操作集合没有旋转对称性
+     */
+    OrbitRecipeBuilder(RecipeDatabase db) {
+        Operate[] operates = db.getOperates();
+        this.step = RotationTable.symmetry(operates);
+        if (step == 4) {
+            throw new IllegalArgumentException("操作集合没有旋转对称性");
+        }
+        this.db = db;
+        this.unary = Arrays.stream(operates).filter(x -> x != Operate.STACK).toArray(Operate[]::new);
+        this.stack = List.of(operates).contains(Operate.STACK);
+        Arrays.fill(operate, RecipeDatabase.NONE);
+    }
+
+    void run() {
+        for (int id = 0x0001; id <= 0x000f; id++) {
+            relax(id, 1, 0, RecipeDatabase.BASE, 0, 0);
+        }
+        while (!heap.isEmpty()) {
+            int id = (int) (heap.poll() & 0xFFFF);
+            if (done.add(id)) {
+                expand(id);
+            }
+        }
+        done.forEach(this::derive);
+    }
+
+    private void expand(int id) {
+        int m = materials[id];
+        int o = operations[id];
+        for (var x : unary) {
+            relax(OperateTable.apply(x, id), m, o + 1, (byte) x.ordinal(), id, 0);
+        }
+        if (!stack) {
+            return;
+        }
+        partners.add(id);
+        byte stackOrdinal = (byte) Operate.STACK.ordinal();
+        for (int k = 0; k < 4; k += step) {
+            int rotated = RotationTable.rotate(id, k);
+            // 旋转后作为上层图形
+            for (int n = partners.beginAsTop(rotated); n != 0; n = partners.nextGroup()) {
+                int[] results = partners.results();
+                int[] values = partners.values();
+                for (int i = 0; i < n; i++) {
+                    int bottom = values[i];
+                    relax(results[i], m + materials[bottom], o + operations[bottom] + 1,
+                            stackOrdinal, rotated, bottom);
+                }
+            }
+            // 旋转后作为下层图形
+            for (int n = partners.beginAsBottom(rotated); n != 0; n = partners.nextGroup()) {
+                int[] results = partners.results();
+                int[] values = partners.values();
+                for (int i = 0; i < n; i++) {
+                    int top = values[i];
+                    relax(results[i], m + materials[top], o + operations[top] + 1,
+                            stackOrdinal, top, rotated);
+                }
+            }
+        }
+    }
+
+    /**
+     * 用一个配方更新图形所在等价类的配方，配方会被旋转为代表的配方.
+     */
+    private void relax(int id, int m, int o, byte x, int p1, int p2) {
+        if (id == 0) {
+            return;
+        }
+        int c = RotationTable.canonical(id, step);
+        if (done.contains(c)) {
+            return;
+        }
+        if (operate[c] != RecipeDatabase.NONE && db.compare(m, o, materials[c], operations[c]) >= 0) {
+            return;
+        }
+        // id 为代表顺时针旋转 k 次，将配方逆时针旋转 k 次
+        int k = (4 - rotation(c, id)) % 4;
+        materials[c] = (short) m;
+        operations[c] = (short) o;
+        operate[c] = x < 0 ? x : (byte) RotationTable.conjugate(Operate.values()[x], k).ordinal();
+        parent1[c] = (char) RotationTable.rotate(p1, k);
+        parent2[c] = (char) RotationTable.rotate(p2, k);
+        long key = db.getPriority() == RecipeDatabase.Priority.MATERIALS ? ((long) m << 16 | o) : ((long) o << 16 | m);
+        heap.add(key << 16 | c);
+    }
+
+    /**
+     * 返回代表需要顺时针旋转多少个 90 度才能得到该成员.
+     */
+    private static int rotation(int canonical, int id) {
+        int k = 0;
+        while (RotationTable.rotate(canonical, k) != id) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * 由代表的配方旋转得到等价类所有成员的配方.
+     */
+    private void derive(int c) {
+        for (int k = 0; k < 4; k += step) {
+            int id = RotationTable.rotate(c, k);
+            if (k > 0 && id == c) {
+                break;
+            }
+            byte x = operate[c];
+            db.set(id, materials[c], operations[c],
+                    x < 0 ? x : (byte) RotationTable.conjugate(Operate.values()[x], k).ordinal(),
+                    RotationTable.rotate(parent1[c], k), RotationTable.rotate(parent2[c], k));
+        }
+    }
+}
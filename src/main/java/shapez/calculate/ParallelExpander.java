@@ -0,0 +1,258 @@
+package shapez.calculate;
+
+import java.io.Serial;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * 使用 ForkJoinPool 并行处理一层前沿，结果与 {@link ShapeClosure} 单线程处理完全一致.
+ * <p>
+ * 单线程处理时，本层新得到的图形会立即参与后续前沿的堆叠，结果依赖于处理顺序。
+ * 为了在并行时得到相同的结果，为单线程处理过程中的每次操作定义一个“时刻”：
+ * <ul>
+ *     <li>前沿中第 fi 个图形的第 j 种单图形操作，时刻为 (fi, 0, j)</li>
+ *     <li>前沿中第 fi 个图形与 id 为 p 的图形堆叠（两种顺序），时刻为 (fi, 1, p)</li>
+ * </ul>
+ * 单线程处理时，某次堆叠会被执行，当且仅当参与堆叠的图形在该时刻之前已知。
+ * 因此每个新图形的“得到时刻”，是所有能得到它、且输入在该时刻前均已知的操作的最小时刻。
+ * <p>
+ * 并行处理时，先计算所有只涉及本层开始前已知图形的操作；
+ * 再不断用新图形的得到时刻，计算其可以参与的堆叠，并通过 CAS 更新结果的得到时刻，直至不再变化。
+ * 得到时刻只会减小，且每次减小都对应一次真实可执行的操作，所以最终结果唯一，与线程调度无关。
+ * <p>
+ * 由于不再依赖处理顺序，与本层开始前已知图形的堆叠可以按列高度组合分组进行（见 {@link ProfileBuckets}），
+ * 每组只计算一次偏移，且整组跳过上层图形被完全挤出的情况。
+ *
+ * @author MengLeiFudge
+ */
+class ParallelExpander {
+    /**
+     * 时刻中表示操作类型的 bit，置位表示堆叠.
+     */
+    private static final long STACK_PHASE = 1L << 17;
+    /**
+     * 时刻中前沿序号的偏移量.
+     */
+    private static final int FRONTIER_SHIFT = 18;
+    /**
+     * 表示图形尚未得到的时刻.
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+    private final ForkJoinPool pool;
+    private final int threadNum;
+    private final Operate[] operates;
+    private final boolean stack;
+    private final int[] steps;
+    private final ShapeSet known;
+    /**
+     * 本层开始前已知的图形，分别按作为下层、上层图形时的列高度组合分组.
+     */
+    private ProfileBuckets knownAsBottom;
+    private ProfileBuckets knownAsTop;
+    /**
+     * 本层新图形的得到时刻.
+     */
+    private final AtomicLongArray times = new AtomicLongArray(ShapeClosure.ID_NUM);
+    /**
+     * 指示图形是否在待处理列表中.
+     */
+    private final AtomicIntegerArray dirty = new AtomicIntegerArray(ShapeClosure.ID_NUM);
+    /**
+     * 新图形已经与前沿中序号不小于该值的图形堆叠过.
+     */
+    private final int[] done = new int[ShapeClosure.ID_NUM];
+    /**
+     * 本层新得到的图形.
+     */
+    private final int[] discovered = new int[ShapeClosure.ID_NUM];
+    private final AtomicInteger discoveredSize = new AtomicInteger();
+    /**
+     * 得到时刻减小，需要重新处理的新图形.
+     */
+    private int[] pending = new int[ShapeClosure.ID_NUM];
+    private int[] spare = new int[ShapeClosure.ID_NUM];
+    private final AtomicInteger pendingSize = new AtomicInteger();
+
+    ParallelExpander(ForkJoinPool pool, Operate[] operates, int[] steps, ShapeSet known) {
+        this.pool = pool;
+        this.threadNum = pool.getParallelism();
+        this.operates = operates;
+        this.stack = List.of(operates).contains(Operate.STACK);
+        this.steps = steps;
+        this.known = known;
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            times.set(id, NEVER);
+        }
+    }
+
+    /**
+     * 处理一层前沿.
+     * <p>
+     * 处理过程中不修改 steps 与已知图形位图，所有新图形在处理完毕后交给 claim 记录。
+     *
+     * @param frontier    本层前沿，按 id 升序排列
+     * @param currentStep 本层图形的步骤数
+     * @param claim       记录新图形的方法
+     */
+    void expand(int[] frontier, int currentStep, IntConsumer claim) {
+        discoveredSize.set(0);
+        pendingSize.set(0);
+        if (stack) {
+            knownAsBottom = new ProfileBuckets(known, true);
+            knownAsTop = new ProfileBuckets(known, false);
+        }
+        // 1.只涉及本层开始前已知图形的操作
+        invoke(frontier.length, fi -> expandKnown(frontier, fi, currentStep));
+        // 2.新图形参与的堆叠，直至得到时刻不再变化
+        while (pendingSize.get() > 0) {
+            int[] round = pending;
+            int roundSize = pendingSize.getAndSet(0);
+            pending = spare;
+            invoke(roundSize, i -> expandNew(frontier, round[i]));
+            spare = round;
+        }
+        int size = discoveredSize.get();
+        for (int i = 0; i < size; i++) {
+            int id = discovered[i];
+            times.set(id, NEVER);
+            claim.accept(id);
+        }
+    }
+
+    /**
+     * 前沿中第 fi 个图形的单图形操作，及其与本层开始前已知图形的堆叠.
+     */
+    private void expandKnown(int[] frontier, int fi, int currentStep) {
+        int id = frontier[fi];
+        long base = (long) fi << FRONTIER_SHIFT;
+        for (var x : operates) {
+            if (x != Operate.STACK) {
+                offer(OperateTable.apply(x, id), base | x.ordinal());
+            }
+        }
+        if (!stack) {
+            return;
+        }
+        // 作为上层图形，与每组下层图形的偏移相同
+        int topProfile = StackTable.topProfile(id);
+        for (int b = 0; b < knownAsBottom.size(); b++) {
+            int shift = StackTable.shift(topProfile, knownAsBottom.profile(b));
+            if (shift == StackTable.SHIFT_OUT) {
+                continue;
+            }
+            int part = (id << shift) & 0xFFFF;
+            for (int i = knownAsBottom.from(b); i < knownAsBottom.to(b); i++) {
+                int id2 = knownAsBottom.id(i);
+                if (id2 < id && steps[id2] == currentStep) {
+                    continue;
+                }
+                offer(id2 | part, base | STACK_PHASE | id2);
+            }
+        }
+        // 作为下层图形，与每组上层图形的偏移相同
+        int bottomProfile = StackTable.bottomProfile(id);
+        for (int t = 0; t < knownAsTop.size(); t++) {
+            int shift = StackTable.shift(knownAsTop.profile(t), bottomProfile);
+            if (shift == StackTable.SHIFT_OUT) {
+                continue;
+            }
+            for (int i = knownAsTop.from(t); i < knownAsTop.to(t); i++) {
+                int id2 = knownAsTop.id(i);
+                if (id2 < id && steps[id2] == currentStep) {
+                    continue;
+                }
+                offer(id | ((id2 << shift) & 0xFFFF), base | STACK_PHASE | id2);
+            }
+        }
+    }
+
+    /**
+     * 新图形与其得到时刻之后的前沿图形堆叠.
+     */
+    private void expandNew(int[] frontier, int id) {
+        dirty.set(id, 0);
+        long time = times.get(id);
+        int fi = (int) (time >>> FRONTIER_SHIFT);
+        // 同一前沿图形处理过程中得到的图形，只有在单图形操作阶段得到，或 id 位于游标之后，才会与该前沿图形堆叠
+        boolean sameFrontier = (time & STACK_PHASE) == 0 || (time & 0xFFFF) < id;
+        int from = sameFrontier ? fi : fi + 1;
+        int to = Math.min(done[id], frontier.length);
+        for (int i = from; i < to; i++) {
+            long t = ((long) i << FRONTIER_SHIFT) | STACK_PHASE | id;
+            offer(StackTable.stack(frontier[i], id), t);
+            offer(StackTable.stack(id, frontier[i]), t);
+        }
+        done[id] = Math.min(done[id], from);
+    }
+
+    /**
+     * 尝试以更早的时刻得到图形.
+     *
+     * @param id   图形 id
+     * @param time 得到时刻
+     */
+    private void offer(int id, long time) {
+        if (id == 0 || steps[id] != 0) {
+            return;
+        }
+        long old = times.get(id);
+        while (time < old) {
+            if (times.compareAndSet(id, old, time)) {
+                if (old == NEVER) {
+                    done[id] = Integer.MAX_VALUE;
+                    discovered[discoveredSize.getAndIncrement()] = id;
+                }
+                if (stack && dirty.compareAndSet(id, 0, 1)) {
+                    pending[pendingSize.getAndIncrement()] = id;
+                }
+                return;
+            }
+            old = times.get(id);
+        }
+    }
+
+    /**
+     * 将 [0, size) 拆分后并行执行.
+     */
+    private void invoke(int size, IntConsumer action) {
+        int grain = Math.max(1, size / (threadNum * 16));
+        pool.invoke(new RangeTask(0, size, grain, action));
+    }
+
+    /**
+     * 将 [lo, hi) 对半拆分，直至不超过 grain 个元素后依次执行.
+     */
+    static class RangeTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final transient IntConsumer action;
+
+        RangeTask(int lo, int hi, int grain, IntConsumer action) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                for (int i = lo; i < hi; i++) {
+                    action.accept(i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new RangeTask(lo, mid, grain, action), new RangeTask(mid, hi, grain, action));
+        }
+    }
+}
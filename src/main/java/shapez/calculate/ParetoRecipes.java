@@ -0,0 +1,407 @@
+package shapez.calculate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import shapez.base.Building;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * 图形合成配方的帕累托前沿：总材料数、总操作数、所需建筑种类数三者之间的取舍.
+ * <p>
+ * {@link RecipeDatabase} 每个图形只保留一个最优配方，而这里每个图形保留所有互不支配的配方（称为标签）。
+ * 建筑种类数不能直接相加，两个配方合并后的种类数取决于具体用了哪些建筑，
+ * 因此标签记录的是建筑种类的集合，一个标签支配另一个标签，当且仅当材料数、操作数都不多，且建筑集合是其子集。
+ * 这样保留的标签是精确的，最后再按种类数筛出真正的帕累托前沿。
+ * <p>
+ * 计算使用多标签的 Dijkstra 算法（label-setting）：按（操作数，材料数，种类数）从小到大取出标签，
+ * 此时它不会再被任何新标签支配，称为已确定的标签，再将其与所有已确定的标签进行操作。
+ * 已确定的标签按列高度组合分组，堆叠时整组计算偏移，并跳过上层图形被完全挤出的组。
+ * 标签的所有数据都存放在基本类型数组中。
+ *
+ * @author MengLeiFudge
+ * @see RecipeDatabase
+ */
+public final class ParetoRecipes {
+    private static final Logger logger = LoggerFactory.getLogger(ParetoRecipes.class);
+
+    /**
+     * 标签序号，表示不存在.
+     */
+    public static final int NONE = -1;
+
+    private final Operate[] operates;
+    /**
+     * 标签的数据，索引为标签序号.
+     */
+    private short[] materials = new short[1024];
+    private short[] operations = new short[1024];
+    /**
+     * 用到的建筑种类，第 i 位表示 {@link Building.BuildingType} 中序号为 i 的建筑.
+     */
+    private int[] machines = new int[1024];
+    /**
+     * 最后一步的操作，值为 {@link Operate#ordinal()} 或 {@link RecipeDatabase#BASE}.
+     */
+    private byte[] operate = new byte[1024];
+    private char[] shape = new char[1024];
+    private int[] parent1 = new int[1024];
+    private int[] parent2 = new int[1024];
+    private int labelNum;
+    /**
+     * 图形 id 的帕累托前沿在 {@link #frontier} 中的起止位置为 [bounds[id], bounds[id + 1]).
+     */
+    private final int[] bounds = new int[ShapeClosure.ID_NUM + 1];
+    /**
+     * 按图形 id 排列的帕累托前沿，同一图形的标签按操作数、材料数、种类数升序排列.
+     */
+    private int[] frontier;
+
+    private ParetoRecipes(Operate[] operates) {
+        this.operates = operates;
+    }
+
+    /**
+     * 计算所有图形的帕累托前沿.
+     *
+     * @param operates 允许使用的操作
+     * @return 帕累托前沿
+     */
+    public static ParetoRecipes build(Operate[] operates) {
+        long t1 = System.currentTimeMillis();
+        ParetoRecipes recipes = new ParetoRecipes(operates);
+        new Builder(recipes).run();
+        long t2 = System.currentTimeMillis();
+        logger.info("帕累托前沿计算共用时 {} s，标签数 {}", (t2 - t1) / 1000.0, recipes.frontier.length);
+        return recipes;
+    }
+
+    /**
+     * 计算过程中使用的临时数据.
+     */
+    private static final class Builder {
+        private final ParetoRecipes r;
+        private final LongHeap heap = new LongHeap();
+        /**
+         * 每个图形当前未被支配的标签，包括尚未确定的标签.
+         */
+        private final int[][] labels = new int[ShapeClosure.ID_NUM][];
+        private final int[] labelsSize = new int[ShapeClosure.ID_NUM];
+        /**
+         * 被新标签支配的、尚未确定的标签，取出时跳过.
+         */
+        private boolean[] dead = new boolean[1024];
+        /**
+         * 已确定的标签，按图形的列高度组合分组.
+         */
+        private final StackPartners partners = new StackPartners();
+        private final Operate[] unary;
+        private final boolean stack;
+
+        Builder(ParetoRecipes r) {
+            this.r = r;
+            this.unary = Arrays.stream(r.operates).filter(x -> x != Operate.STACK).toArray(Operate[]::new);
+            this.stack = unary.length != r.operates.length;
+        }
+
+        void run() {
+            for (int id = 0x0001; id <= 0x000f; id++) {
+                add(id, 1, 0, 0, RecipeDatabase.BASE, NONE, NONE);
+            }
+            char[][] tables = new char[unary.length][];
+            int[] bits = new int[unary.length];
+            for (int i = 0; i < unary.length; i++) {
+                tables[i] = OperateTable.table(unary[i]);
+                bits[i] = 1 << unary[i].getBuildingType().ordinal();
+            }
+            while (!heap.isEmpty()) {
+                int label = (int) (heap.poll() & 0xFFFFFF);
+                if (dead[label]) {
+                    continue;
+                }
+                int id = r.shape[label];
+                int m = r.materials[label];
+                int o = r.operations[label];
+                int k = r.machines[label];
+                for (int i = 0; i < unary.length; i++) {
+                    relax(tables[i][id], m, o + 1, k | bits[i], (byte) unary[i].ordinal(), label, NONE);
+                }
+                if (stack) {
+                    expandStack(label, id, m, o, k);
+                }
+            }
+            r.frontier = new int[r.labelNum];
+            int size = 0;
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                r.bounds[id] = size;
+                size = filter(id, size);
+            }
+            r.bounds[ShapeClosure.ID_NUM] = size;
+            r.frontier = Arrays.copyOf(r.frontier, size);
+        }
+
+        private void expandStack(int label, int id, int m, int o, int k) {
+            partners.add(id, label);
+            byte stackOrdinal = (byte) Operate.STACK.ordinal();
+            k |= 1 << Building.BuildingType.STACKER.ordinal();
+            // 作为上层图形
+            for (int n = partners.beginAsTop(id); n != 0; n = partners.nextGroup()) {
+                int[] results = partners.results();
+                int[] values = partners.values();
+                for (int i = 0; i < n; i++) {
+                    int bottom = values[i];
+                    relax(results[i], m + r.materials[bottom], o + r.operations[bottom] + 1,
+                            k | r.machines[bottom], stackOrdinal, label, bottom);
+                }
+            }
+            // 作为下层图形
+            for (int n = partners.beginAsBottom(id); n != 0; n = partners.nextGroup()) {
+                int[] results = partners.results();
+                int[] values = partners.values();
+                for (int i = 0; i < n; i++) {
+                    int top = values[i];
+                    relax(results[i], m + r.materials[top], o + r.operations[top] + 1,
+                            k | r.machines[top], stackOrdinal, top, label);
+                }
+            }
+        }
+
+        /**
+         * 如果新标签不被图形已有的标签支配，则加入新标签，并删除被它支配的标签.
+         * <p>
+         * 新标签的操作数大于所有已确定的标签，因此被删除的只会是尚未确定的标签。
+         */
+        private void relax(int id, int m, int o, int k, byte x, int p1, int p2) {
+            if (id == 0) {
+                return;
+            }
+            int[] list = labels[id];
+            int size = labelsSize[id];
+            for (int i = 0; i < size; i++) {
+                int l = list[i];
+                if (r.materials[l] <= m && r.operations[l] <= o && (r.machines[l] & ~k) == 0) {
+                    return;
+                }
+            }
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                int l = list[i];
+                if (m <= r.materials[l] && o <= r.operations[l] && (k & ~r.machines[l]) == 0) {
+                    dead[l] = true;
+                } else {
+                    list[j++] = l;
+                }
+            }
+            labelsSize[id] = j;
+            add(id, m, o, k, x, p1, p2);
+        }
+
+        private void add(int id, int m, int o, int k, byte x, int p1, int p2) {
+            int label = r.newLabel(id, m, o, k, x, p1, p2);
+            if (label == dead.length) {
+                dead = Arrays.copyOf(dead, label * 2);
+            }
+            labels[id] = append(labels[id], labelsSize[id]++, label);
+            heap.add(key(label));
+        }
+
+        /**
+         * 返回标签在堆中的排序键，依次比较操作数、材料数、种类数，低 24 位为标签序号.
+         */
+        private long key(int label) {
+            return (long) r.operations[label] << 44 | (long) r.materials[label] << 29
+                    | (long) Integer.bitCount(r.machines[label]) << 24 | label;
+        }
+
+        /**
+         * 按建筑种类数筛出图形的帕累托前沿，写入 {@link #frontier}.
+         *
+         * @return 写入后 {@link #frontier} 的大小
+         */
+        private int filter(int id, int size) {
+            int[] list = labels[id];
+            int n = labelsSize[id];
+            if (n == 0) {
+                return size;
+            }
+            // 按操作数、材料数、种类数升序排列后，前面的标签不会被后面的标签支配
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = key(list[i]);
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < n; i++) {
+                int l = (int) (keys[i] & 0xFFFFFF);
+                boolean dominated = false;
+                for (int j = 0; j < i && !dominated; j++) {
+                    int l2 = (int) (keys[j] & 0xFFFFFF);
+                    dominated = r.materials[l2] <= r.materials[l] && r.operations[l2] <= r.operations[l]
+                            && Integer.bitCount(r.machines[l2]) <= Integer.bitCount(r.machines[l]);
+                }
+                if (!dominated) {
+                    r.frontier[size++] = l;
+                }
+            }
+            return size;
+        }
+
+        private static int[] append(int[] array, int index, int value) {
+            if (array == null) {
+                array = new int[4];
+            } else if (index == array.length) {
+                array = Arrays.copyOf(array, index * 2);
+            }
+            array[index] = value;
+            return array;
+        }
+    }
+
+    private int newLabel(int id, int m, int o, int k, byte x, int p1, int p2) {
+        if (labelNum == shape.length) {
+            int length = labelNum * 2;
+            materials = Arrays.copyOf(materials, length);
+            operations = Arrays.copyOf(operations, length);
+            machines = Arrays.copyOf(machines, length);
+            operate = Arrays.copyOf(operate, length);
+            shape = Arrays.copyOf(shape, length);
+            parent1 = Arrays.copyOf(parent1, length);
+            parent2 = Arrays.copyOf(parent2, length);
+        }
+        int label = labelNum++;
+        materials[label] = (short) m;
+        operations[label] = (short) o;
+        machines[label] = k;
+        operate[label] = x;
+        shape[label] = (char) id;
+        parent1[label] = p1;
+        parent2[label] = p2;
+        return label;
+    }
+
+    public boolean contains(int id) {
+        return bounds[id] != bounds[id + 1];
+    }
+
+    /**
+     * 返回图形的帕累托前沿.
+     *
+     * @param id 图形 id
+     * @return 标签序号数组，按操作数、材料数、种类数升序排列，无法合成时为空数组
+     */
+    public int[] getFrontier(int id) {
+        return Arrays.copyOfRange(frontier, bounds[id], bounds[id + 1]);
+    }
+
+    /**
+     * 按权重从图形的帕累托前沿中选出加权和最小的配方.
+     * <p>
+     * 加权和相同时，选择操作数、材料数、种类数依次更少的配方。
+     *
+     * @param id              图形 id
+     * @param materialWeight  总材料数的权重
+     * @param operationWeight 总操作数的权重
+     * @param machineWeight   建筑种类数的权重
+     * @return 标签序号，无法合成时返回 {@link #NONE}
+     */
+    public int pick(int id, double materialWeight, double operationWeight, double machineWeight) {
+        int best = NONE;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int i = bounds[id]; i < bounds[id + 1]; i++) {
+            int label = frontier[i];
+            double cost = materialWeight * materials[label] + operationWeight * operations[label]
+                    + machineWeight * getMachineNum(label);
+            if (cost < bestCost) {
+                best = label;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 返回标签对应的图形.
+     *
+     * @param label 标签序号
+     * @return 图形 id
+     */
+    public int getShape(int label) {
+        return shape[label];
+    }
+
+    public int getMaterials(int label) {
+        return materials[label];
+    }
+
+    public int getOperations(int label) {
+        return operations[label];
+    }
+
+    /**
+     * 返回配方用到的建筑种类数.
+     *
+     * @param label 标签序号
+     * @return 建筑种类数
+     */
+    public int getMachineNum(int label) {
+        return Integer.bitCount(machines[label]);
+    }
+
+    /**
+     * 返回配方用到的建筑种类.
+     *
+     * @param label 标签序号
+     * @return 建筑种类的集合
+     */
+    public Set<Building.BuildingType> getMachines(int label) {
+        Set<Building.BuildingType> set = EnumSet.noneOf(Building.BuildingType.class);
+        for (var type : Building.BuildingType.values()) {
+            if ((machines[label] & (1 << type.ordinal())) != 0) {
+                set.add(type);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * 返回最后一步的操作.
+     *
+     * @param label 标签序号
+     * @return 最后一步的操作，基础图形返回 null
+     */
+    public Operate getOperate(int label) {
+        byte x = operate[label];
+        return x < 0 ? null : Operate.values()[x];
+    }
+
+    public boolean isBase(int label) {
+        return operate[label] == RecipeDatabase.BASE;
+    }
+
+    /**
+     * 返回最后一步被操作的图形1所用的配方，堆叠时为上层图形.
+     * <p>
+     * 该配方不一定在图形1的帕累托前沿中，但一定是图形1的合法配方。
+     *
+     * @param label 标签序号
+     * @return 标签序号，基础图形返回 {@link #NONE}
+     */
+    public int getParent1(int label) {
+        return parent1[label];
+    }
+
+    /**
+     * 返回最后一步被操作的图形2所用的配方，只有堆叠时存在，为下层图形.
+     *
+     * @param label 标签序号
+     * @return 标签序号，不是堆叠时返回 {@link #NONE}
+     */
+    public int getParent2(int label) {
+        return parent2[label];
+    }
+
+    public Operate[] getOperates() {
+        return operates.clone();
+    }
+}
@@ -0,0 +1,160 @@
+package shapez.calculate;
+
+import java.util.function.IntConsumer;
+
+/**
+ * 枚举图形操作的来源图形，即操作的逆运算.
+ * <p>
+ * 与 {@link SimpleShapes} 相同，直接对图形 id 进行操作，id 的格式见 {@link SimpleShape}。
+ * 所有方法都不逐个尝试候选图形，而是由结果图形直接构造来源图形，耗时与来源图形的数目成正比：
+ * <ul>
+ *     <li>旋转：来源图形唯一，为反向旋转的结果</li>
+ *     <li>切割：结果图形的每一层依次放回来源图形的某一层，其余层的保留部分为空；
+ *     来源图形中切掉的部分可以任意</li>
+ *     <li>堆叠：下层图形为结果图形的真子集，其余部分为上层图形上移后留下的部分，见 {@link #forEachStack}</li>
+ * </ul>
+ * 空图形（id 为 0）不作为来源图形，也没有来源图形。
+ *
+ * @author MengLeiFudge
+ */
+public final class Preimages {
+    private Preimages() {
+    }
+
+    /**
+     * 对单图形操作后得到该图形的每个图形执行操作.
+     *
+     * @param operate 单图形操作
+     * @param id      结果图形 id
+     * @param action  对每个来源图形 id 执行的操作
+     * @throws IllegalArgumentException 如果操作是堆叠
+     */
+    public static void forEach(Operate operate, int id, IntConsumer action) {
+        if (id == 0) {
+            if (operate == Operate.STACK) {
+                throw new IllegalArgumentException("堆叠不是单图形操作");
+            }
+            return;
+        }
+        switch (operate) {
+            case LEFT -> forEachCut(id, SimpleShapes.LEFT, action);
+            case RIGHT -> forEachCut(id, SimpleShapes.RIGHT, action);
+            case TOP_RIGHT -> forEachCut(id, SimpleShapes.TOP_RIGHT, action);
+            case BOTTOM_RIGHT -> forEachCut(id, SimpleShapes.BOTTOM_RIGHT, action);
+            case BOTTOM_LEFT -> forEachCut(id, SimpleShapes.BOTTOM_LEFT, action);
+            case TOP_LEFT -> forEachCut(id, SimpleShapes.TOP_LEFT, action);
+            case R90 -> action.accept(SimpleShapes.rotate270(id));
+            case R180 -> action.accept(SimpleShapes.rotate180(id));
+            case R270 -> action.accept(SimpleShapes.rotate90(id));
+            case STACK -> throw new IllegalArgumentException("堆叠不是单图形操作");
+        }
+    }
+
+    /**
+     * 对切割后得到该图形的每个图形执行操作.
+     * <p>
+     * 结果图形有 n 层时，先从来源图形的 4 层中选出 n 层依次放入结果图形的各层，
+     * 再在 4 层切掉的部分中任意取象限，共 C(4, n) * 2^(4 * 切掉的象限数) 个来源图形。
+     *
+     * @param id     结果图形 id
+     * @param mask   层筛选器，4 位，如 {@link SimpleShapes#LEFT}
+     * @param action 对每个来源图形 id 执行的操作，按层的位置、切掉部分的 id 升序
+     */
+    public static void forEachCut(int id, int mask, IntConsumer action) {
+        if (id == 0) {
+            return;
+        }
+        // 切割的结果只含保留的部分，且没有空层
+        int n = 0;
+        for (int layer = 0; layer < 4; layer++) {
+            int x = (id >>> (layer * 4)) & 0xF;
+            if (x == 0) {
+                if (id >>> (layer * 4) != 0) {
+                    return;
+                }
+                break;
+            }
+            if ((x & ~mask) != 0) {
+                return;
+            }
+            n++;
+        }
+        // 4 层中所有切掉的部分
+        int rest = (~mask & 0xF) * 0x1111;
+        for (int positions = 0; positions < 0x10; positions++) {
+            if (Integer.bitCount(positions) != n) {
+                continue;
+            }
+            int kept = 0;
+            for (int layer = 0, i = 0; layer < 4; layer++) {
+                if ((positions & (1 << layer)) != 0) {
+                    kept |= ((id >>> (i++ * 4)) & 0xF) << (layer * 4);
+                }
+            }
+            // 按升序枚举 rest 的所有子集
+            int r = 0;
+            do {
+                action.accept(kept | r);
+                r = (r - rest) & rest;
+            } while (r != 0);
+        }
+    }
+
+    /**
+     * 对堆叠后得到该图形的每对图形执行操作.
+     * <p>
+     * 只包括上层图形没有被完全挤出的图形对，即下层图形不等于结果图形；
+     * 上层图形被完全挤出时，任何上层图形都满足条件，没有意义。
+     *
+     * @param id     结果图形 id
+     * @param action 对每对（上层图形 id，下层图形 id）执行的操作
+     */
+    public static void forEachStack(int id, StackPairConsumer action) {
+        forEachStack(id, null, action);
+    }
+
+    /**
+     * 对堆叠后得到该图形、且两个图形都在给定集合中的每对图形执行操作.
+     * <p>
+     * 不逐个尝试图形对，而是直接拆分结果图形：下层图形必为结果的真子集，
+     * 其余部分是上层图形左移 4k 位（上移 k 层）后留下的部分，k 不超过其余部分最低一层的层号；
+     * 上层图形中被挤出第 4 层以上的 k 层可以任意，但只有在下层图形该列高度为 4 时，
+     * 被挤出的最低一层才会影响偏移。每个下层图形、每个 k 只需查一次偏移，
+     * 之后枚举到的上层图形都满足条件。
+     *
+     * @param id     结果图形 id
+     * @param shapes 图形集合，为 null 时不限制
+     * @param action 对每对（上层图形 id，下层图形 id）执行的操作，下层图形降序
+     */
+    public static void forEachStack(int id, ShapeSet shapes, StackPairConsumer action) {
+        for (int bottom = (id - 1) & id; bottom != 0; bottom = (bottom - 1) & id) {
+            if (shapes != null && !shapes.contains(bottom)) {
+                continue;
+            }
+            int part = id ^ bottom;
+            int bottomProfile = StackTable.bottomProfile(bottom);
+            // 下层图形中高度为 4 的列
+            int full = bottom >>> 12;
+            int lowest = Integer.numberOfTrailingZeros(part) >>> 2;
+            for (int k = 0; k <= lowest; k++) {
+                int hidden = 4 * k;
+                int visible = part >>> hidden;
+                int shift = StackTable.shift(StackTable.topProfile(visible), bottomProfile);
+                if (shift > hidden) {
+                    continue;
+                }
+                // 偏移不足 k 层时，被挤出的最低一层必须落在高度为 4 的列上
+                boolean needFull = shift < hidden;
+                for (int h = 0; h < 1 << hidden; h++) {
+                    if (needFull && (h & full) == 0) {
+                        continue;
+                    }
+                    int top = visible | (h << (16 - hidden));
+                    if (shapes == null || shapes.contains(top)) {
+                        action.accept(top, bottom);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package shapez.calculate;
+
+import shapez.base.Building;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 每个图形按最优配方生产时，产出 1 个/秒所需的各种建筑与基础图形的比例.
+ * <p>
+ * 切割建筑每处理 1 个输入图形，得到左右两半（或四个角）各 1 个，配方只使用其中之一；
+ * 旋转建筑 1 个输入得到 1 个输出；堆叠建筑消耗上下两个图形各 1 个，得到 1 个输出。
+ * 因此产出 1 个/秒时，最后一步的建筑需要处理 1 次/秒，每个被操作图形也需要 1 个/秒，
+ * 比例为被操作图形的比例之和，再加上最后一步的建筑，与 {@link RecipeTree.Node#getBaseCounts()} 的递推相同。
+ * <p>
+ * 每一步的总操作数都严格大于被操作图形的总操作数，按总操作数升序计算一遍即可得到所有图形的结果，不需要递归。
+ * 结果按图形 id 存放在基本类型数组中，建筑数量的单位是每秒的处理次数，除以建筑的处理速度即为建筑个数。
+ *
+ * @author MengLeiFudge
+ * @see RecipeTree
+ */
+public final class ProductionRatios {
+    /**
+     * 执行各操作的建筑类型，按第一次出现时操作的 {@link Operate#ordinal()} 排列.
+     */
+    private static final Building.BuildingType[] MACHINES = Arrays.stream(Operate.values())
+            .map(Operate::getBuildingType)
+            .distinct()
+            .toArray(Building.BuildingType[]::new);
+    private static final int MACHINE_NUM = MACHINES.length;
+    /**
+     * 基础图形 id 的范围为 1 - 15，索引 0 不使用.
+     */
+    private static final int BASE_NUM = 0x10;
+    /**
+     * 每个操作的建筑在 {@link #MACHINES} 中的序号，索引为 {@link Operate#ordinal()}.
+     */
+    private static final int[] MACHINE_INDEX = new int[Operate.values().length];
+
+    static {
+        List<Building.BuildingType> machines = List.of(MACHINES);
+        for (var x : Operate.values()) {
+            MACHINE_INDEX[x.ordinal()] = machines.indexOf(x.getBuildingType());
+        }
+    }
+
+    private final RecipeDatabase db;
+    /**
+     * 每个图形每种建筑的处理次数，图形 id 的数据位于 [id * MACHINE_NUM, (id + 1) * MACHINE_NUM).
+     */
+    private final int[] machines = new int[ShapeClosure.ID_NUM * MACHINE_NUM];
+    /**
+     * 每个图形每种基础图形的用量，图形 id 的数据位于 [id * BASE_NUM, (id + 1) * BASE_NUM).
+     */
+    private final int[] bases = new int[ShapeClosure.ID_NUM * BASE_NUM];
+
+    private ProductionRatios(RecipeDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * 计算所有图形的生产比例.
+     *
+     * @param db 配方数据库
+     * @return 生产比例
+     */
+    public static ProductionRatios of(RecipeDatabase db) {
+        ProductionRatios ratios = new ProductionRatios(db);
+        ratios.calculate();
+        return ratios;
+    }
+
+    private void calculate() {
+        for (int id : sortByOperations()) {
+            if (db.isBase(id)) {
+                bases[id * BASE_NUM + id] = 1;
+                continue;
+            }
+            Operate x = db.getOperate(id);
+            add(id, db.getParent1(id));
+            if (x == Operate.STACK) {
+                add(id, db.getParent2(id));
+            }
+            machines[id * MACHINE_NUM + MACHINE_INDEX[x.ordinal()]]++;
+        }
+    }
+
+    /**
+     * 将被操作图形的比例加到图形上.
+     */
+    private void add(int id, int parent) {
+        for (int i = 0; i < MACHINE_NUM; i++) {
+            machines[id * MACHINE_NUM + i] += machines[parent * MACHINE_NUM + i];
+        }
+        for (int i = 1; i < BASE_NUM; i++) {
+            bases[id * BASE_NUM + i] += bases[parent * BASE_NUM + i];
+        }
+    }
+
+    /**
+     * 按总操作数计数排序，被操作图形总是排在前面.
+     *
+     * @return 所有可合成图形的 id
+     */
+    private int[] sortByOperations() {
+        int maxOperations = 0;
+        int num = 0;
+        for (int id = 0x0001; id < ShapeClosure.ID_NUM; id++) {
+            if (db.contains(id)) {
+                maxOperations = Math.max(maxOperations, db.getOperations(id));
+                num++;
+            }
+        }
+        int[] starts = new int[maxOperations + 2];
+        for (int id = 0x0001; id < ShapeClosure.ID_NUM; id++) {
+            if (db.contains(id)) {
+                starts[db.getOperations(id) + 1]++;
+            }
+        }
+        for (int o = 1; o < starts.length; o++) {
+            starts[o] += starts[o - 1];
+        }
+        int[] sorted = new int[num];
+        for (int id = 0x0001; id < ShapeClosure.ID_NUM; id++) {
+            if (db.contains(id)) {
+                sorted[starts[db.getOperations(id)]++] = id;
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * 返回执行内置操作的所有建筑类型.
+     *
+     * @return 建筑类型数组
+     */
+    public static Building.BuildingType[] getMachineTypes() {
+        return MACHINES.clone();
+    }
+
+    public RecipeDatabase getRecipes() {
+        return db;
+    }
+
+    public boolean contains(int id) {
+        return db.contains(id);
+    }
+
+    /**
+     * 返回产出 1 个/秒时某种建筑每秒的处理次数.
+     *
+     * @param id   图形 id
+     * @param type 建筑类型
+     * @return 每秒的处理次数，不执行内置操作的建筑或无法合成时为 0
+     */
+    public int getMachines(int id, Building.BuildingType type) {
+        for (int i = 0; i < MACHINE_NUM; i++) {
+            if (MACHINES[i] == type) {
+                return machines[id * MACHINE_NUM + i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 返回产出 1 个/秒时每种建筑每秒的处理次数.
+     *
+     * @param id 图形 id
+     * @return 处理次数数组，顺序与 {@link #getMachineTypes()} 相同
+     */
+    public int[] getMachines(int id) {
+        return Arrays.copyOfRange(machines, id * MACHINE_NUM, (id + 1) * MACHINE_NUM);
+    }
+
+    /**
+     * 返回产出 1 个/秒时所有建筑每秒的处理次数之和，等于最优配方的总操作数.
+     *
+     * @param id 图形 id
+     * @return 每秒的处理次数
+     */
+    public int getMachineSum(int id) {
+        int sum = 0;
+        for (int i = 0; i < MACHINE_NUM; i++) {
+            sum += machines[id * MACHINE_NUM + i];
+        }
+        return sum;
+    }
+
+    /**
+     * 返回产出 1 个/秒时某种基础图形每秒的用量.
+     *
+     * @param id   图形 id
+     * @param base 基础图形 id（1 - 15）
+     * @return 每秒的用量
+     */
+    public int getBaseRate(int id, int base) {
+        if (base < 1 || base >= BASE_NUM) {
+            throw new IllegalArgumentException("不是基础图形：" + base);
+        }
+        return bases[id * BASE_NUM + base];
+    }
+
+    /**
+     * 返回产出 1 个/秒时每种基础图形每秒的用量.
+     *
+     * @param id 图形 id
+     * @return 用量数组，索引为基础图形 id（1 - 15）
+     */
+    public int[] getBaseRates(int id) {
+        return Arrays.copyOfRange(bases, id * BASE_NUM, (id + 1) * BASE_NUM);
+    }
+
+    /**
+     * 返回产出 1 个/秒时基础图形每秒的总用量，等于最优配方的总材料数.
+     *
+     * @param id 图形 id
+     * @return 每秒的用量
+     */
+    public int getBaseRateSum(int id) {
+        int sum = 0;
+        for (int i = 1; i < BASE_NUM; i++) {
+            sum += bases[id * BASE_NUM + i];
+        }
+        return sum;
+    }
+
+    /**
+     * 返回不需要某种建筑的可合成图形.
+     *
+     * @param type 建筑类型
+     * @return 查询条件
+     */
+    public ShapeQuery without(Building.BuildingType type) {
+        long[] words = new long[ShapeSet.WORD_NUM];
+        for (int id = 0x0001; id < ShapeClosure.ID_NUM; id++) {
+            if (db.contains(id) && getMachines(id, type) == 0) {
+                words[id >>> 6] |= 1L << id;
+            }
+        }
+        return new ShapeQuery(words);
+    }
+
+    /**
+     * 返回产出 1 个/秒时所有建筑每秒的处理次数之和不超过 num 的可合成图形.
+     *
+     * @param num 处理次数之和的上限
+     * @return 查询条件
+     */
+    public ShapeQuery machineSumAtMost(int num) {
+        long[] words = new long[ShapeSet.WORD_NUM];
+        for (int id = 0x0001; id < ShapeClosure.ID_NUM; id++) {
+            if (db.contains(id) && getMachineSum(id) <= num) {
+                words[id >>> 6] |= 1L << id;
+            }
+        }
+        return new ShapeQuery(words);
+    }
+}
@@ -0,0 +1,104 @@
+package shapez.calculate;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 按列高度组合分组的图形集合.
+ * <p>
+ * 同一组内的图形，与同一个图形堆叠时的偏移相同，只需按组计算一次偏移；
+ * 偏移为“完全挤出”的组，结果必然是下层图形本身，可以整组跳过。
+ * 其他双图形操作也可以按各自的分组方式分组，见 {@link BinaryOperation}。
+ *
+ * @author MengLeiFudge
+ * @see StackTable
+ */
+final class ProfileBuckets {
+    /**
+     * 非空分组的列高度组合.
+     */
+    private final int[] profiles;
+    /**
+     * 第 i 个非空分组在 {@link #ids} 中的起止位置为 [bounds[i], bounds[i + 1]).
+     */
+    private final int[] bounds;
+    /**
+     * 按分组排列的图形 id，组内按 id 升序排列.
+     */
+    private final int[] ids;
+
+    /**
+     * 将图形按列高度组合分组.
+     *
+     * @param shapes   图形集合
+     * @param asBottom 为 true 时按列顶高度组合（作为下层图形）分组，否则按列底高度组合（作为上层图形）分组
+     */
+    ProfileBuckets(ShapeSet shapes, boolean asBottom) {
+        this(shapes, asBottom ? StackTable::bottomProfile : StackTable::topProfile, StackTable.PROFILE_NUM);
+    }
+
+    /**
+     * 将图形按任意分组方式分组，用于 {@link BinaryOperation}.
+     *
+     * @param shapes     图形集合
+     * @param profile    图形的分组
+     * @param profileNum 分组数
+     */
+    ProfileBuckets(ShapeSet shapes, IntUnaryOperator profile, int profileNum) {
+        int[] all = shapes.toArray();
+        int[] count = new int[profileNum + 1];
+        for (int id : all) {
+            count[profile.applyAsInt(id) + 1]++;
+        }
+        int size = 0;
+        for (int p = 0; p < profileNum; p++) {
+            if (count[p + 1] != 0) {
+                size++;
+            }
+            count[p + 1] += count[p];
+        }
+        profiles = new int[size];
+        bounds = new int[size + 1];
+        for (int p = 0, i = 0; p < profileNum; p++) {
+            if (count[p + 1] != count[p]) {
+                profiles[i] = p;
+                bounds[i] = count[p];
+                bounds[++i] = count[p + 1];
+            }
+        }
+        ids = new int[all.length];
+        for (int id : all) {
+            ids[count[profile.applyAsInt(id)]++] = id;
+        }
+    }
+
+    /**
+     * 返回非空分组的数目.
+     *
+     * @return 非空分组的数目
+     */
+    int size() {
+        return profiles.length;
+    }
+
+    /**
+     * 返回第 i 个非空分组的列高度组合（或其他分组方式的分组）.
+     *
+     * @param i 分组序号
+     * @return 列高度组合
+     */
+    int profile(int i) {
+        return profiles[i];
+    }
+
+    int from(int i) {
+        return bounds[i];
+    }
+
+    int to(int i) {
+        return bounds[i + 1];
+    }
+
+    int id(int index) {
+        return ids[index];
+    }
+}
@@ -0,0 +1,314 @@
+package shapez.calculate;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 图形合成配方数据库，记录每个可合成图形的最优合成方式.
+ * <p>
+ * 每个图形记录总材料数、总操作数、最后一步的操作及被操作的图形：
+ * <ul>
+ *     <li>总材料数：消耗的单层图形（基础图形）个数，切割、旋转不改变材料数，堆叠为两者之和</li>
+ *     <li>总操作数：所有切割、旋转、堆叠的次数之和</li>
+ *     <li>被操作图形：单图形操作只有图形1；堆叠时图形1为上层图形，图形2为下层图形</li>
+ * </ul>
+ * 计算使用 Knuth 对 Dijkstra 算法的推广：每次取出代价最小的图形，此时其代价已是最优，
+ * 再将其与所有已确定的图形进行操作。由于任何操作的代价都严格大于输入的代价，一次遍历即可得到所有图形的最优配方。
+ * 代价相同时，保留最先得到的配方。
+ *
+ * @author MengLeiFudge
+ */
+public final class RecipeDatabase {
+    private static final Logger logger = LoggerFactory.getLogger(RecipeDatabase.class);
+    private static final String CSV_HEADER = "目标图形,总材料数,总操作数,操作类型,被操作图形1,被操作图形2";
+
+    /**
+     * 指示如何比较两个配方.
+     */
+    public enum Priority {
+        /**
+         * 材料数最少，材料数相同时操作数最少.
+         */
+        MATERIALS,
+        /**
+         * 操作数最少，操作数相同时材料数最少.
+         */
+        OPERATIONS
+    }
+
+    /**
+     * 操作类型：无法合成.
+     */
+    public static final byte NONE = -2;
+    /**
+     * 操作类型：基础图形，即单层图形.
+     */
+    public static final byte BASE = -1;
+
+    private final Operate[] operates;
+    private final Priority priority;
+    private final short[] materials = new short[ShapeClosure.ID_NUM];
+    private final short[] operations = new short[ShapeClosure.ID_NUM];
+    /**
+     * 最后一步的操作，值为 {@link Operate#ordinal()}、{@link #BASE} 或 {@link #NONE}.
+     */
+    private final byte[] operate = new byte[ShapeClosure.ID_NUM];
+    private final char[] parent1 = new char[ShapeClosure.ID_NUM];
+    private final char[] parent2 = new char[ShapeClosure.ID_NUM];
+
+    RecipeDatabase(Operate[] operates, Priority priority) {
+        this.operates = operates;
+        this.priority = priority;
+        Arrays.fill(operate, NONE);
+    }
+
+    /**
+     * 计算所有图形的最优配方.
+     *
+     * @param operates 允许使用的操作
+     * @param priority 配方的比较方式
+     * @return 配方数据库
+     */
+    public static RecipeDatabase build(Operate[] operates, Priority priority) {
+        long t1 = System.currentTimeMillis();
+        RecipeDatabase db = new RecipeDatabase(operates, priority);
+        new Builder(db).run();
+        long t2 = System.currentTimeMillis();
+        logger.info("配方计算共用时 {} s", (t2 - t1) / 1000.0);
+        return db;
+    }
+
+    /**
+     * 只对旋转等价类的代表计算配方，其余成员的配方由代表的配方旋转得到，代价与 {@link #build} 完全相同.
+     * <p>
+     * 包含左右切割时只有旋转 180 度的对称性，需要处理的图形约为一半；否则约为四分之一。
+     *
+     * @param operates 允许使用的操作，必须具有旋转对称性，见 {@link RotationTable#symmetry}
+     * @param priority 配方的比较方式
+     * @return 配方数据库
+     * @throws IllegalArgumentException 如果操作集合没有旋转对称性
+     */
+    public static RecipeDatabase buildByOrbit(Operate[] operates, Priority priority) {
+        long t1 = System.currentTimeMillis();
+        RecipeDatabase db = new RecipeDatabase(operates, priority);
+        new OrbitRecipeBuilder(db).run();
+        long t2 = System.currentTimeMillis();
+        logger.info("配方计算共用时 {} s", (t2 - t1) / 1000.0);
+        return db;
+    }
+
+    /**
+     * 计算过程中使用的临时数据.
+     */
+    private static final class Builder {
+        private final RecipeDatabase db;
+        private final ShapeSet done = new ShapeSet();
+        private final LongHeap heap = new LongHeap();
+        /**
+         * 已确定的图形，按列高度组合分组.
+         */
+        private final StackPartners partners = new StackPartners();
+        private final boolean stack;
+
+        Builder(RecipeDatabase db) {
+            this.db = db;
+            this.stack = List.of(db.operates).contains(Operate.STACK);
+        }
+
+        void run() {
+            for (int id = 0x0001; id <= 0x000f; id++) {
+                update(id, 1, 0, BASE, 0, 0);
+            }
+            while (!heap.isEmpty()) {
+                long entry = heap.poll();
+                int id = (int) (entry & 0xFFFF);
+                if (!done.add(id)) {
+                    continue;
+                }
+                expand(id);
+            }
+        }
+
+        private void expand(int id) {
+            int m = db.materials[id];
+            int o = db.operations[id];
+            for (var x : db.operates) {
+                if (x != Operate.STACK) {
+                    relax(OperateTable.apply(x, id), m, o + 1, (byte) x.ordinal(), id, 0);
+                }
+            }
+            if (!stack) {
+                return;
+            }
+            partners.add(id);
+            byte stackOrdinal = (byte) Operate.STACK.ordinal();
+            // 作为上层图形
+            for (int n = partners.beginAsTop(id); n != 0; n = partners.nextGroup()) {
+                int[] results = partners.results();
+                int[] values = partners.values();
+                for (int i = 0; i < n; i++) {
+                    int bottom = values[i];
+                    relax(results[i], m + db.materials[bottom], o + db.operations[bottom] + 1,
+                            stackOrdinal, id, bottom);
+                }
+            }
+            // 作为下层图形
+            for (int n = partners.beginAsBottom(id); n != 0; n = partners.nextGroup()) {
+                int[] results = partners.results();
+                int[] values = partners.values();
+                for (int i = 0; i < n; i++) {
+                    int top = values[i];
+                    relax(results[i], m + db.materials[top], o + db.operations[top] + 1,
+                            stackOrdinal, top, id);
+                }
+            }
+        }
+
+        private void relax(int id, int m, int o, byte x, int p1, int p2) {
+            if (id == 0 || done.contains(id)) {
+                return;
+            }
+            if (db.operate[id] != NONE && db.compare(m, o, db.materials[id], db.operations[id]) >= 0) {
+                return;
+            }
+            update(id, m, o, x, p1, p2);
+        }
+
+        private void update(int id, int m, int o, byte x, int p1, int p2) {
+            db.materials[id] = (short) m;
+            db.operations[id] = (short) o;
+            db.operate[id] = x;
+            db.parent1[id] = (char) p1;
+            db.parent2[id] = (char) p2;
+            long key = db.priority == Priority.MATERIALS ? ((long) m << 16 | o) : ((long) o << 16 | m);
+            heap.add(key << 16 | id);
+        }
+    }
+
+    /**
+     * 按配方的比较方式比较两个代价.
+     *
+     * @return 负数表示前者更优，0 表示相同，正数表示后者更优
+     */
+    int compare(int m1, int o1, int m2, int o2) {
+        if (priority == Priority.MATERIALS) {
+            return m1 != m2 ? Integer.compare(m1, m2) : Integer.compare(o1, o2);
+        }
+        return o1 != o2 ? Integer.compare(o1, o2) : Integer.compare(m1, m2);
+    }
+
+    void set(int id, int m, int o, byte x, int p1, int p2) {
+        materials[id] = (short) m;
+        operations[id] = (short) o;
+        operate[id] = x;
+        parent1[id] = (char) p1;
+        parent2[id] = (char) p2;
+    }
+
+    public boolean contains(int id) {
+        return operate[id] != NONE;
+    }
+
+    public int getMaterials(int id) {
+        return materials[id];
+    }
+
+    public int getOperations(int id) {
+        return operations[id];
+    }
+
+    /**
+     * 返回最后一步的操作.
+     *
+     * @param id 图形 id
+     * @return 最后一步的操作，基础图形或无法合成时返回 null
+     */
+    public Operate getOperate(int id) {
+        byte x = operate[id];
+        return x < 0 ? null : Operate.values()[x];
+    }
+
+    public boolean isBase(int id) {
+        return operate[id] == BASE;
+    }
+
+    /**
+     * 返回最后一步被操作的图形1，堆叠时为上层图形.
+     *
+     * @param id 图形 id
+     * @return 图形 id，基础图形或无法合成时返回 0
+     */
+    public int getParent1(int id) {
+        return parent1[id];
+    }
+
+    /**
+     * 返回最后一步被操作的图形2，只有堆叠时存在，为下层图形.
+     *
+     * @param id 图形 id
+     * @return 图形 id，不是堆叠时返回 0
+     */
+    public int getParent2(int id) {
+        return parent2[id];
+    }
+
+    public Operate[] getOperates() {
+        return operates.clone();
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 返回所有可合成图形的集合.
+     *
+     * @return 可合成图形的集合
+     */
+    public ShapeSet getShapes() {
+        ShapeSet shapes = new ShapeSet();
+        for (int id = 0x0001; id <= 0xffff; id++) {
+            if (contains(id)) {
+                shapes.add(id);
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * 以 csv 格式保存配方数据库，格式与旧版 db_2c1r_*.csv 相同，堆叠记为 ADD.
+     *
+     * @param file csv 文件
+     * @throws IOException 如果写入文件失败
+     */
+    public void writeCsv(File file) throws IOException {
+        StringBuilder sb = new StringBuilder(CSV_HEADER.length() + 0x10000 * 24).append(CSV_HEADER);
+        for (int id = 0x0001; id <= 0xffff; id++) {
+            if (!contains(id)) {
+                continue;
+            }
+            sb.append('\n').append(id)
+                    .append(',').append(materials[id])
+                    .append(',').append(operations[id])
+                    .append(',').append(getOperateName(operate[id]))
+                    .append(',').append((int) parent1[id])
+                    .append(',').append((int) parent2[id]);
+        }
+        FileUtils.writeStringToFile(file, sb.toString(), StandardCharsets.UTF_8);
+    }
+
+    private static String getOperateName(byte x) {
+        if (x == BASE) {
+            return "BASE";
+        }
+        Operate operate = Operate.values()[x];
+        return operate == Operate.STACK ? "ADD" : operate.name();
+    }
+}
@@ -0,0 +1,223 @@
+package shapez.calculate;
+
+import java.util.Arrays;
+
+/**
+ * 基于配方数据库的合成树查询.
+ * <p>
+ * 每个图形在配方数据库中只有一个最优配方，因此合成树实际上是一个有向无环图：
+ * 同一个图形无论在多少棵树中出现，都只对应一个 {@link Node}，子节点在访问时才创建。
+ * 树的规模、基础图形用量、合成顺序、文本形式等结果都缓存在节点上，按子节点递推得到，
+ * 不会因为共享子树被重复展开而指数级增长。
+ * 合并子节点结果时需要的去重位图由整棵树共用，用完后只清除用到的位，不会为每个节点重新分配。
+ * <p>
+ * 该类不是线程安全的。
+ *
+ * @author MengLeiFudge
+ */
+public final class RecipeTree {
+    private final RecipeDatabase db;
+    private final Node[] nodes = new Node[ShapeClosure.ID_NUM];
+    /**
+     * 去重用的位图，每次使用后恢复为空.
+     */
+    private final ShapeSet scratch = new ShapeSet();
+
+    public RecipeTree(RecipeDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * 返回图形对应的节点.
+     *
+     * @param id 图形 id
+     * @return 节点，无法合成时返回 null
+     */
+    public Node get(int id) {
+        if (!db.contains(id)) {
+            return null;
+        }
+        Node node = nodes[id];
+        if (node == null) {
+            node = new Node(id);
+            nodes[id] = node;
+        }
+        return node;
+    }
+
+    /**
+     * 合成树中的一个节点，表示一个图形及其最优配方.
+     */
+    public final class Node {
+        private final int id;
+        /**
+         * 每种基础图形（1 - 15）的用量，索引为基础图形 id.
+         */
+        private int[] baseCounts;
+        /**
+         * 合成该图形需要的所有不同图形，按合成顺序排列，最后一个是该图形本身.
+         */
+        private int[] buildOrder;
+        private String treeString;
+
+        private Node(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public boolean isBase() {
+            return db.isBase(id);
+        }
+
+        /**
+         * 返回最后一步的操作.
+         *
+         * @return 最后一步的操作，基础图形返回 null
+         */
+        public Operate getOperate() {
+            return db.getOperate(id);
+        }
+
+        /**
+         * 返回被操作的图形1，堆叠时为上层图形.
+         *
+         * @return 节点，基础图形返回 null
+         */
+        public Node getParent1() {
+            return isBase() ? null : get(db.getParent1(id));
+        }
+
+        /**
+         * 返回被操作的图形2，只有堆叠时存在，为下层图形.
+         *
+         * @return 节点，不是堆叠时返回 null
+         */
+        public Node getParent2() {
+            return getOperate() == Operate.STACK ? get(db.getParent2(id)) : null;
+        }
+
+        public int getMaterials() {
+            return db.getMaterials(id);
+        }
+
+        public int getOperations() {
+            return db.getOperations(id);
+        }
+
+        /**
+         * 返回每种基础图形的用量.
+         *
+         * @return 用量数组，索引为基础图形 id（1 - 15）
+         */
+        public int[] getBaseCounts() {
+            return getBaseCountsRef().clone();
+        }
+
+        private int[] getBaseCountsRef() {
+            if (baseCounts == null) {
+                int[] counts = new int[0x10];
+                if (isBase()) {
+                    counts[id] = 1;
+                } else {
+                    add(counts, getParent1().getBaseCountsRef());
+                    Node parent2 = getParent2();
+                    if (parent2 != null) {
+                        add(counts, parent2.getBaseCountsRef());
+                    }
+                }
+                baseCounts = counts;
+            }
+            return baseCounts;
+        }
+
+        /**
+         * 返回合成该图形需要的所有不同图形，按合成顺序排列.
+         * <p>
+         * 共享的子树只出现一次，最后一个元素是该图形本身。
+         *
+         * @return 图形 id 数组
+         */
+        public int[] getBuildOrder() {
+            return getBuildOrderRef().clone();
+        }
+
+        private int[] getBuildOrderRef() {
+            if (buildOrder == null) {
+                if (isBase()) {
+                    buildOrder = new int[]{id};
+                    return buildOrder;
+                }
+                int[] order1 = getParent1().getBuildOrderRef();
+                Node parent2 = getParent2();
+                int[] order2 = parent2 == null ? new int[0] : parent2.getBuildOrderRef();
+                int[] order = Arrays.copyOf(order1, order1.length + order2.length + 1);
+                int size = order1.length;
+                for (int x : order1) {
+                    scratch.add(x);
+                }
+                for (int x : order2) {
+                    if (scratch.add(x)) {
+                        order[size++] = x;
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    scratch.remove(order[i]);
+                }
+                order[size++] = id;
+                buildOrder = Arrays.copyOf(order, size);
+            }
+            return buildOrder;
+        }
+
+        /**
+         * 返回合成树的文本形式，每行一个图形，共享的子树只展开一次.
+         *
+         * @return 合成树文本
+         */
+        public String toTreeString() {
+            if (treeString == null) {
+                // 展开过的图形都在合成顺序中，用完后按合成顺序清除
+                int[] order = getBuildOrderRef();
+                StringBuilder sb = new StringBuilder();
+                append(sb, 0, scratch);
+                for (int x : order) {
+                    scratch.remove(x);
+                }
+                treeString = sb.toString();
+            }
+            return treeString;
+        }
+
+        private void append(StringBuilder sb, int depth, ShapeSet expanded) {
+            sb.append("  ".repeat(depth)).append(id);
+            if (isBase()) {
+                sb.append(" = BASE\n");
+                return;
+            }
+            if (!expanded.add(id)) {
+                sb.append(" (同上)\n");
+                return;
+            }
+            Node parent1 = getParent1();
+            Node parent2 = getParent2();
+            sb.append(" = ").append(getOperate()).append('(').append(parent1.id);
+            if (parent2 != null) {
+                sb.append(", ").append(parent2.id);
+            }
+            sb.append(")\n");
+            parent1.append(sb, depth + 1, expanded);
+            if (parent2 != null) {
+                parent2.append(sb, depth + 1, expanded);
+            }
+        }
+    }
+
+    private static void add(int[] counts, int[] other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other[i];
+        }
+    }
+}
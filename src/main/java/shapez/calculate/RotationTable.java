@@ -0,0 +1,158 @@
+package shapez.calculate;
+
+import java.util.List;
+
+/**
+ * 旋转等价类表.
+ * <p>
+ * 一个图形旋转 0、90、180、270 度得到的图形构成它的旋转等价类，
+ * 以其中 id 最小的图形作为代表（标准形）。允许旋转时，同一等价类的图形要么都能合成，要么都不能合成，
+ * 因此只需对代表进行计算，其余图形的结果由代表旋转得到。
+ *
+ * @author MengLeiFudge
+ */
+public final class RotationTable {
+    private RotationTable() {
+    }
+
+    /**
+     * 每个图形的代表.
+     */
+    private static final char[] CANONICAL = new char[ShapeClosure.ID_NUM];
+    /**
+     * 代表需要顺时针旋转多少个 90 度才能得到该图形.
+     */
+    private static final byte[] ROTATION = new byte[ShapeClosure.ID_NUM];
+
+    static {
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            int min = id;
+            int rotation = 0;
+            for (int k = 1; k < 4; k++) {
+                // 代表顺时针旋转 k 次得到 id，即 id 逆时针旋转 k 次得到代表
+                int x = rotate(id, 4 - k);
+                if (x < min) {
+                    min = x;
+                    rotation = k;
+                }
+            }
+            CANONICAL[id] = (char) min;
+            ROTATION[id] = (byte) rotation;
+        }
+    }
+
+    /**
+     * 返回图形顺时针旋转 k 个 90 度的结果.
+     *
+     * @param id 图形 id
+     * @param k  旋转次数，取值为 0 - 3
+     * @return 旋转后的图形 id
+     */
+    public static int rotate(int id, int k) {
+        return switch (k) {
+            case 0 -> id;
+            case 1 -> SimpleShapes.rotate90(id);
+            case 2 -> SimpleShapes.rotate180(id);
+            case 3 -> SimpleShapes.rotate270(id);
+            default -> throw new IllegalArgumentException("旋转次数不是0-3：" + k);
+        };
+    }
+
+    /**
+     * 返回图形所在旋转等价类的代表，即其所有旋转中 id 最小的一个.
+     *
+     * @param id 图形 id
+     * @return 代表的 id
+     */
+    public static int canonical(int id) {
+        return CANONICAL[id];
+    }
+
+    /**
+     * 返回代表需要顺时针旋转多少个 90 度才能得到该图形.
+     *
+     * @param id 图形 id
+     * @return 旋转次数，取值为 0 - 3，图形本身是代表时为 0
+     */
+    public static int rotation(int id) {
+        return ROTATION[id];
+    }
+
+    public static boolean isCanonical(int id) {
+        return CANONICAL[id] == id;
+    }
+
+    /**
+     * 返回图形所在旋转等价类的大小.
+     *
+     * @param id 图形 id
+     * @return 1、2 或 4
+     */
+    public static int orbitSize(int id) {
+        if (rotate(id, 1) == id) {
+            return 1;
+        }
+        return rotate(id, 2) == id ? 2 : 4;
+    }
+
+    /**
+     * 返回图形在旋转 step 的整数倍个 90 度下的等价类代表.
+     *
+     * @param id   图形 id
+     * @param step 旋转步长，1 表示旋转 90 度的等价类，2 表示旋转 180 度的等价类
+     * @return 代表的 id
+     */
+    public static int canonical(int id, int step) {
+        return switch (step) {
+            case 1 -> CANONICAL[id];
+            case 2 -> Math.min(id, rotate(id, 2));
+            case 4 -> id;
+            default -> throw new IllegalArgumentException("旋转步长不是1、2、4：" + step);
+        };
+    }
+
+    /**
+     * 返回操作集合的旋转对称性，即最小的旋转步长 step，使得将任一操作前后各旋转 step 的整数倍个 90 度后，
+     * 仍是集合中的操作.
+     * <p>
+     * 此时把一个配方的每一步都旋转同样的角度，就得到旋转后图形的配方，且代价相同。
+     * 左右切割旋转 90 度后是上下切割，因此包含左右切割时最多只有旋转 180 度的对称性。
+     *
+     * @param operates 操作集合
+     * @return 1、2 或 4，为 4 时没有对称性
+     */
+    public static int symmetry(Operate[] operates) {
+        for (int step = 1; step < 4; step *= 2) {
+            boolean closed = true;
+            for (var x : operates) {
+                Operate y = conjugate(x, step);
+                closed &= y != null && List.of(operates).contains(y);
+            }
+            if (closed) {
+                return step;
+            }
+        }
+        return 4;
+    }
+
+    /**
+     * 返回与“先逆时针旋转 k 个 90 度，进行操作，再顺时针旋转回来”等价的操作.
+     *
+     * @param operate 操作
+     * @param k       旋转次数，取值为 0 - 3
+     * @return 等价的操作，不存在时返回 null
+     */
+    static Operate conjugate(Operate operate, int k) {
+        return switch (operate) {
+            case LEFT, RIGHT -> switch (k) {
+                case 0 -> operate;
+                case 2 -> operate == Operate.LEFT ? Operate.RIGHT : Operate.LEFT;
+                default -> null;
+            };
+            // 四个象限按 bit 顺序为右上、右下、左下、左上，顺时针旋转一次即移到下一个象限
+            case TOP_RIGHT, BOTTOM_RIGHT, BOTTOM_LEFT, TOP_LEFT -> Operate.values()[Operate.TOP_RIGHT.ordinal()
+                    + (operate.ordinal() - Operate.TOP_RIGHT.ordinal() + k) % 4];
+            case R90, R180, R270, STACK -> operate;
+        };
+    }
+}
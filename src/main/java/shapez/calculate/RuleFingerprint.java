@@ -0,0 +1,195 @@
+package shapez.calculate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 规则指纹，用于判断保存的计算结果是否仍然适用.
+ * <p>
+ * 指纹由引擎版本、图形规格（层数、部分数）、允许使用的操作，以及这些操作的实际结果共同决定：
+ * 原版规格下，每个单图形操作的结果表与堆叠的列高度表都参与计算，
+ * 因此即使忘记递增 {@link #ENGINE_VERSION}，修改操作的语义后指纹也会改变。
+ * {@link OperationProvider} 提供的额外操作按名称排序后，名称与编译后的结果表、分组表、参数表也参与计算；
+ * 没有额外操作时，指纹与只有内置操作时相同。
+ * 指纹为 SHA-256 摘要的前 8 个字节。
+ * <p>
+ * 图形数据库文件、检查点文件、合成方法数目文件都保存指纹，读取时与当前规则的指纹比较，
+ * 不一致时读取方法直接报错，{@link GetAllShapes} 捕获后重新计算。
+ *
+ * @author MengLeiFudge
+ */
+public final class RuleFingerprint {
+    private RuleFingerprint() {
+    }
+
+    /**
+     * 引擎版本，计算方式改变、使已保存的结果失效时递增.
+     */
+    public static final int ENGINE_VERSION = 1;
+
+    /**
+     * 原版规格下每个操作的结果的摘要，索引为 {@link Operate#ordinal()}.
+     */
+    private static final byte[][] KERNEL_DIGESTS = new byte[Operate.values().length][];
+
+    static {
+        for (var x : Operate.values()) {
+            MessageDigest digest = sha256();
+            if (x == Operate.STACK) {
+                ByteBuffer buffer = ByteBuffer.allocate(ShapeClosure.ID_NUM * Short.BYTES * 2);
+                for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                    buffer.putShort((short) StackTable.topProfile(id)).putShort((short) StackTable.bottomProfile(id));
+                }
+                digest.update(buffer.array());
+                byte[] shifts = new byte[StackTable.PROFILE_NUM * StackTable.PROFILE_NUM];
+                for (int top = 0; top < StackTable.PROFILE_NUM; top++) {
+                    for (int bottom = 0; bottom < StackTable.PROFILE_NUM; bottom++) {
+                        shifts[top * StackTable.PROFILE_NUM + bottom] = (byte) StackTable.shift(top, bottom);
+                    }
+                }
+                digest.update(shifts);
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(ShapeClosure.ID_NUM * Character.BYTES);
+                buffer.asCharBuffer().put(OperateTable.table(x));
+                digest.update(buffer.array());
+            }
+            KERNEL_DIGESTS[x.ordinal()] = digest.digest();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // 所有 Java 平台都必须支持 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 返回原版规格下一组操作的指纹.
+     *
+     * @param operates 允许使用的操作，与顺序、重复无关
+     * @return 指纹
+     */
+    public static long of(Operate[] operates) {
+        return of(ShapeGeometry.STANDARD, operates);
+    }
+
+    /**
+     * 返回规则配置中内置操作的指纹.
+     *
+     * @param profile 规则配置
+     * @return 指纹
+     */
+    public static long of(RuleProfile profile) {
+        return of(profile.getOperates());
+    }
+
+    /**
+     * 返回原版规格下一组编译后的操作的指纹，包括其中的额外操作.
+     *
+     * @param operations 编译后的操作，与顺序无关
+     * @return 指纹
+     */
+    public static long of(CompiledOperations operations) {
+        MessageDigest digest = digest(ShapeGeometry.STANDARD, operations.getOperates());
+        if (operations.hasExtensions()) {
+            Map<String, Integer> unary = new TreeMap<>();
+            for (int i = 0; i < operations.getUnaryNum(); i++) {
+                if (!operations.isBuiltinUnary(i)) {
+                    unary.put(operations.getUnaryName(i), i);
+                }
+            }
+            for (var entry : unary.entrySet()) {
+                updateName(digest, entry.getKey());
+                ByteBuffer buffer = ByteBuffer.allocate(ShapeClosure.ID_NUM * Character.BYTES);
+                buffer.asCharBuffer().put(operations.unaryTable(entry.getValue()));
+                digest.update(buffer.array());
+            }
+            Map<String, Integer> binary = new TreeMap<>();
+            for (int i = 0; i < operations.getBinaryNum(); i++) {
+                if (!operations.isBuiltinBinary(i)) {
+                    binary.put(operations.getBinaryName(i), i);
+                }
+            }
+            for (var entry : binary.entrySet()) {
+                updateName(digest, entry.getKey());
+                updateBinary(digest, operations, entry.getValue());
+            }
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private static void updateName(MessageDigest digest, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    /**
+     * 双图形操作的结果无法列表，摘要包括每个图形的两种分组与所有分组对的参数.
+     */
+    private static void updateBinary(MessageDigest digest, CompiledOperations operations, int i) {
+        BinaryOperation x = operations.binary(i);
+        int firstNum = x.getFirstProfileNum();
+        int secondNum = x.getSecondProfileNum();
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * (2 + ShapeClosure.ID_NUM * 2));
+        buffer.putInt(firstNum).putInt(secondNum);
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            buffer.putInt(operations.firstProfile(i, id)).putInt(operations.secondProfile(i, id));
+        }
+        digest.update(buffer.array());
+        // 分组对可能很多，逐行计算
+        ByteBuffer row = ByteBuffer.allocate(Integer.BYTES * secondNum);
+        for (int f = 0; f < firstNum; f++) {
+            row.clear();
+            for (int s = 0; s < secondNum; s++) {
+                row.putInt(operations.parameter(i, f, s));
+            }
+            digest.update(row.array());
+        }
+    }
+
+    /**
+     * 返回某种图形规格下一组操作的指纹.
+     *
+     * @param geometry 图形规格
+     * @param operates 允许使用的操作，与顺序、重复无关
+     * @return 指纹
+     */
+    public static long of(ShapeGeometry geometry, Operate[] operates) {
+        return ByteBuffer.wrap(digest(geometry, operates).digest()).getLong();
+    }
+
+    private static MessageDigest digest(ShapeGeometry geometry, Operate[] operates) {
+        MessageDigest digest = sha256();
+        int mask = Operate.toMask(operates);
+        digest.update(ByteBuffer.allocate(Integer.BYTES * 4)
+                .putInt(ENGINE_VERSION)
+                .putInt(geometry.getLayerNum())
+                .putInt(geometry.getPartNum())
+                .putInt(mask)
+                .array());
+        if (geometry.isStandard()) {
+            for (var x : Operate.fromMask(mask)) {
+                digest.update(KERNEL_DIGESTS[x.ordinal()]);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * 返回指纹的十六进制字符串，用于日志与错误信息.
+     *
+     * @param fingerprint 指纹
+     * @return 16 位十六进制字符串
+     */
+    public static String toString(long fingerprint) {
+        return String.format("%016x", fingerprint);
+    }
+}
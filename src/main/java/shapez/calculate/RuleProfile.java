@@ -0,0 +1,109 @@
+package shapez.calculate;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 规则配置，即计算可合成图形时允许使用的操作.
+ * <p>
+ * 每个配置有一个名称，计算结果以该名称为键保存在 shape database 目录下，
+ * 已经计算过的配置可以直接读取，无需重新计算。
+ *
+ * @author MengLeiFudge
+ */
+public final class RuleProfile {
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-z0-9+\\-]+");
+
+    /**
+     * 指示切割机如何处理切下的两部分.
+     */
+    public enum CutMode {
+        /**
+         * 切割：左右两部分都保留，能得到左侧就能得到右侧，四分切割同理.
+         */
+        CUT,
+        /**
+         * 半破：只保留左侧部分，不能直接得到右侧部分，四分切割不受影响.
+         */
+        HALF_DESTROY
+    }
+
+    /**
+     * 所有操作.
+     */
+    public static final RuleProfile ALL = new RuleProfile("all", CutMode.CUT, Operate.values());
+    /**
+     * 左右切割、顺时针旋转 90 度、堆叠.
+     */
+    public static final RuleProfile TWO_CUT_ONE_ROTATE = new RuleProfile("2c1r", CutMode.CUT, Operate.values2c1r());
+
+    private final String name;
+    private final CutMode cutMode;
+    private final Operate[] operates;
+
+    /**
+     * 创建规则配置.
+     *
+     * @param name     配置名称，只能包含小写字母、数字、+、-，用作保存文件名的一部分
+     * @param cutMode  切割方式
+     * @param operates 允许使用的操作
+     * @throws IllegalArgumentException 如果名称不合规或没有任何操作
+     */
+    public RuleProfile(String name, CutMode cutMode, Operate... operates) {
+        if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("规则配置名称不合规：" + name);
+        }
+        if (operates.length == 0) {
+            throw new IllegalArgumentException("规则配置没有任何操作");
+        }
+        Set<Operate> set = EnumSet.copyOf(List.of(operates));
+        switch (cutMode) {
+            case CUT -> {
+                if (set.contains(Operate.LEFT) || set.contains(Operate.RIGHT)) {
+                    set.addAll(List.of(Operate.LEFT, Operate.RIGHT));
+                }
+                Set<Operate> quad = EnumSet.of(Operate.TOP_RIGHT, Operate.BOTTOM_RIGHT,
+                        Operate.BOTTOM_LEFT, Operate.TOP_LEFT);
+                if (set.removeAll(quad)) {
+                    set.addAll(quad);
+                }
+            }
+            case HALF_DESTROY -> {
+                if (set.remove(Operate.RIGHT)) {
+                    set.add(Operate.LEFT);
+                }
+            }
+        }
+        this.name = name;
+        this.cutMode = cutMode;
+        this.operates = set.toArray(new Operate[0]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CutMode getCutMode() {
+        return cutMode;
+    }
+
+    /**
+     * 返回实际允许使用的操作，已按切割方式补全或替换，按 {@link Operate#ordinal()} 升序排列.
+     *
+     * @return 操作数组
+     */
+    public Operate[] getOperates() {
+        return operates.clone();
+    }
+
+    public boolean contains(Operate operate) {
+        return List.of(operates).contains(operate);
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + cutMode + " " + List.of(operates);
+    }
+}
@@ -0,0 +1,334 @@
+package shapez.calculate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以逐层前沿队列的方式计算所有可合成图形，及获取每个图形需要的最少步骤.
+ * <p>
+ * 每一层只处理上一层新得到的图形（前沿），不再反复扫描全部 65536 个 id。
+ * <p>
+ * 为保证结果与原先的逐 id 扫描完全一致，处理顺序与原算法相同：
+ * 前沿按 id 升序处理；堆叠时，当前图形与“此刻”已知的所有图形按 id 升序配对，
+ * 本层刚得到的图形如果 id 位于游标之后，同样会参与配对。
+ * <p>
+ * 线程数大于 1 时，每层前沿交给 {@link ParallelExpander} 并行处理，结果与单线程完全一致。
+ * <p>
+ * 设置检查点文件后，每层处理完毕都会由后台线程保存检查点（见 {@link ClosureCheckpoint}），
+ * 计算中断后可以用 {@link #resume} 从最后一个完整的层继续。
+ *
+ * @author MengLeiFudge
+ */
+public class ShapeClosure {
+    private static final Logger logger = LoggerFactory.getLogger(ShapeClosure.class);
+    /**
+     * 图形 id 的数目，id 范围为 0x0000 - 0xffff.
+     */
+    static final int ID_NUM = 0x10000;
+
+    /**
+     * 指示获取某个图形需要的最少步骤。索引为id的steps不为0，表示id存在.
+     */
+    private final int[] steps = new int[ID_NUM];
+    /**
+     * 已知图形的集合，用于按 id 升序遍历已知图形.
+     */
+    private final ShapeSet known = new ShapeSet();
+    /**
+     * 本层新得到的图形，即下一层的前沿.
+     */
+    private final int[] next = new int[ID_NUM];
+    private int nextSize;
+    /**
+     * 可合成图形总数.
+     */
+    private int num;
+    /**
+     * 最大步骤数.
+     */
+    private int maxStep;
+    /**
+     * 允许使用的操作，按 {@link Operate#ordinal()} 升序排列.
+     */
+    private final Operate[] operates;
+    /**
+     * 规则配置名称，保存在检查点中.
+     */
+    private final String profileName;
+    /**
+     * 计算使用的线程数，不大于 1 时单线程计算.
+     */
+    private final int threadNum;
+    private File checkpointFile;
+    /**
+     * 从检查点恢复时，下一层前沿的步骤数；为 0 表示从头开始.
+     */
+    private int resumeStep;
+
+    public ShapeClosure() {
+        this(1);
+    }
+
+    public ShapeClosure(int threadNum) {
+        this(Operate.values(), threadNum);
+    }
+
+    /**
+     * 创建只使用部分操作的计算.
+     *
+     * @param operates  允许使用的操作
+     * @param threadNum 计算使用的线程数
+     */
+    public ShapeClosure(Operate[] operates, int threadNum) {
+        this("", operates, threadNum);
+    }
+
+    /**
+     * 创建使用规则配置的计算.
+     *
+     * @param profile   规则配置
+     * @param threadNum 计算使用的线程数
+     */
+    public ShapeClosure(RuleProfile profile, int threadNum) {
+        this(profile.getName(), profile.getOperates(), threadNum);
+    }
+
+    private ShapeClosure(String profileName, Operate[] operates, int threadNum) {
+        this.profileName = profileName;
+        this.operates = EnumSet.copyOf(List.of(operates)).toArray(new Operate[0]);
+        this.threadNum = threadNum;
+    }
+
+    /**
+     * 设置检查点文件，每层处理完毕后在后台保存.
+     *
+     * @param file 检查点文件，为 null 时不保存
+     */
+    public void setCheckpointFile(File file) {
+        this.checkpointFile = file;
+    }
+
+    /**
+     * 从检查点恢复计算状态，之后调用 {@link #calculate()} 将从最后一个完整的层继续.
+     *
+     * @param file 检查点文件
+     * @throws IOException              如果读取文件失败
+     * @throws IllegalArgumentException 如果检查点的格式、版本不对，或与当前计算的操作、规则指纹不一致
+     */
+    public void resume(File file) throws IOException {
+        ClosureCheckpoint checkpoint = ClosureCheckpoint.read(file);
+        if (checkpoint.operates != Operate.toMask(operates)) {
+            throw new IllegalArgumentException("检查点的操作 " + List.of(Operate.fromMask(checkpoint.operates))
+                    + " 与当前计算的操作 " + List.of(operates) + " 不一致");
+        }
+        long fingerprint = RuleFingerprint.of(operates);
+        if (checkpoint.fingerprint != fingerprint) {
+            throw new IllegalArgumentException("检查点的规则指纹 " + RuleFingerprint.toString(checkpoint.fingerprint)
+                    + " 与当前规则的指纹 " + RuleFingerprint.toString(fingerprint) + " 不一致");
+        }
+        for (int id = 0x0001; id < ID_NUM; id++) {
+            int step = checkpoint.steps[id] & 0xFF;
+            if (step != 0) {
+                steps[id] = step;
+                known.add(id);
+                num++;
+            }
+        }
+        resumeStep = checkpoint.step;
+        logger.info("从检查点恢复，规则配置：{}，步骤：{}，num: {}", checkpoint.profile, resumeStep, num);
+    }
+
+    /**
+     * 从所有单层图形开始，逐层计算直至没有新图形产生.
+     * <p>
+     * 设置了检查点文件时，返回前会等待所有检查点保存完毕。
+     */
+    public void calculate() {
+        int[] frontier;
+        int currentStep;
+        if (resumeStep == 0) {
+            for (int id = 0x0001; id <= 0x000f; id++) {
+                claim(id, 1);
+            }
+            frontier = takeNext();
+            currentStep = 1;
+        } else {
+            currentStep = resumeStep;
+            frontier = known.toArray();
+            int size = 0;
+            for (int id : frontier) {
+                if (steps[id] == currentStep) {
+                    frontier[size++] = id;
+                }
+            }
+            frontier = Arrays.copyOf(frontier, size);
+        }
+        ForkJoinPool pool = threadNum > 1 ? new ForkJoinPool(threadNum) : null;
+        ExecutorService writer = checkpointFile == null ? null : Executors.newSingleThreadExecutor();
+        try {
+            ParallelExpander expander = pool == null ? null : new ParallelExpander(pool, operates, steps, known);
+            while (true) {
+                if (expander == null) {
+                    expand(frontier, currentStep);
+                } else {
+                    int newStep = currentStep + 1;
+                    expander.expand(frontier, currentStep, id -> claim(id, newStep));
+                }
+                if (nextSize == 0) {
+                    logger.info("Finish, num: " + num);
+                    break;
+                }
+                logger.info("Step" + currentStep + " End, num: " + num);
+                frontier = takeNext();
+                currentStep++;
+                if (writer != null) {
+                    saveCheckpoint(writer, currentStep);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            if (writer != null) {
+                awaitCheckpoint(writer);
+            }
+        }
+        maxStep = currentStep;
+    }
+
+    /**
+     * 在后台保存检查点，保存的是步骤表的副本，计算可以继续进行.
+     *
+     * @param writer 保存检查点的线程
+     * @param step   下一层前沿的步骤数
+     */
+    private void saveCheckpoint(ExecutorService writer, int step) {
+        byte[] copy = new byte[ID_NUM];
+        for (int id = 0; id < ID_NUM; id++) {
+            copy[id] = (byte) steps[id];
+        }
+        ClosureCheckpoint checkpoint = new ClosureCheckpoint(profileName, Operate.toMask(operates),
+                RuleFingerprint.of(operates), step, copy);
+        File file = checkpointFile;
+        writer.execute(() -> {
+            try {
+                checkpoint.write(file);
+            } catch (IOException e) {
+                logger.error("", e);
+            }
+        });
+    }
+
+    /**
+     * 等待已提交的检查点全部保存完毕后再返回，调用者可以随后删除检查点文件.
+     * <p>
+     * 保存超时不会放弃等待，只记录警告；等待时被中断则取消尚未开始的保存并返回。
+     *
+     * @param writer 保存检查点的线程
+     */
+    private static void awaitCheckpoint(ExecutorService writer) {
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("检查点 1 分钟内未保存完毕，继续等待");
+            }
+        } catch (InterruptedException e) {
+            int cancelled = writer.shutdownNow().size();
+            logger.error("等待保存检查点时被中断，取消 {} 个未开始的保存", cancelled, e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 处理一层前沿，本层新得到的图形步骤数均为 currentStep + 1.
+     * <p>
+     * 半朴素求值：同层的两个前沿图形只需配对一次。
+     * 由于前沿按 id 升序处理，且每次配对会同时计算两种堆叠顺序，
+     * 当前图形与 id 更小的同层图形的配对结果，在处理那个图形时已经全部记录过了。
+     *
+     * @param frontier    本层前沿，按 id 升序排列
+     * @param currentStep 本层图形的步骤数
+     */
+    private void expand(int[] frontier, int currentStep) {
+        int newStep = currentStep + 1;
+        for (int id : frontier) {
+            for (var x : operates) {
+                if (x != Operate.STACK) {
+                    claim(OperateTable.apply(x, id), newStep);
+                    continue;
+                }
+                for (int id2 = known.nextSetBit(0x0001); id2 != -1; id2 = known.nextSetBit(id2 + 1)) {
+                    if (id2 < id && steps[id2] == currentStep) {
+                        continue;
+                    }
+                    claim(StackTable.stack(id, id2), newStep);
+                    claim(StackTable.stack(id2, id), newStep);
+                }
+            }
+        }
+    }
+
+    /**
+     * 如果图形尚未得到，记录其步骤数，并将其加入下一层前沿.
+     *
+     * @param id   图形 id
+     * @param step 步骤数
+     */
+    private void claim(int id, int step) {
+        if (id == 0 || steps[id] != 0) {
+            return;
+        }
+        steps[id] = step;
+        known.add(id);
+        next[nextSize++] = id;
+        num++;
+    }
+
+    /**
+     * 取出下一层前沿，并按 id 升序排列.
+     *
+     * @return 下一层前沿
+     */
+    private int[] takeNext() {
+        int[] frontier = Arrays.copyOf(next, nextSize);
+        Arrays.sort(frontier);
+        nextSize = 0;
+        return frontier;
+    }
+
+    /**
+     * 返回每个图形需要的最少步骤，值为 0 表示该图形无法合成.
+     *
+     * @return 步骤表，索引为图形 id
+     */
+    public int[] getSteps() {
+        return steps;
+    }
+
+    /**
+     * 返回所有可合成图形的集合.
+     *
+     * @return 可合成图形的集合
+     */
+    public ShapeSet getShapes() {
+        return known;
+    }
+
+    public int getNum() {
+        return num;
+    }
+
+    public int getMaxStep() {
+        return maxStep;
+    }
+}
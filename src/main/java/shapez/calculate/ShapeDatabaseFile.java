@@ -0,0 +1,425 @@
+package shapez.calculate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 二进制格式的图形数据库文件，通过内存映射读取.
+ * <p>
+ * 文件由 32 字节的文件头和若干个数据段组成，数据段按以下顺序排列，不存在的数据段不占空间：
+ * <ul>
+ *     <li>可合成图形的位图：1024 个 long</li>
+ *     <li>步骤数：65536 个 byte，值为 0 表示该图形无法合成</li>
+ *     <li>深度：65536 个 byte，即 {@link OperationClosure} 严格分层的深度，值为 0 表示该图形无法合成，
+ *     用于增加操作时的增量计算</li>
+ *     <li>材料优先的配方、操作优先的配方：各为 5 列，依次为总材料数（short）、总操作数（short）、
+ *     被操作图形1（char）、被操作图形2（char）、最后一步的操作（byte），每列 65536 个元素</li>
+ * </ul>
+ * 文件头依次为魔数、格式版本、数据段标志、允许使用的操作（第 i 位表示序号为 i 的操作）、
+ * 规则指纹（long，见 {@link RuleFingerprint}），其余保留。
+ * <p>
+ * 打开文件时只读取文件头，查询某个图形时直接读取映射的内存，不需要解析整个文件。
+ * 供人阅读的 json、csv 格式请使用 {@link ShapeSet#writeJson} 与 {@link RecipeDatabase#writeCsv}。
+ *
+ * @author MengLeiFudge
+ */
+public final class ShapeDatabaseFile {
+    /**
+     * 魔数，即 "SPZD".
+     */
+    private static final int MAGIC = 0x53505A44;
+    /**
+     * 格式版本，格式改变时递增.
+     */
+    public static final int VERSION = 3;
+    private static final int HEADER_SIZE = 32;
+
+    private static final int SECTION_SHAPES = 1;
+    private static final int SECTION_STEPS = 1 << 1;
+    private static final int SECTION_RECIPES = 1 << 2;
+    /**
+     * 配方占用从 1 << 2 开始的各位，深度使用高位.
+     */
+    private static final int SECTION_DEPTHS = 1 << 16;
+
+    private static final int SHAPES_SIZE = ShapeSet.WORD_NUM * Long.BYTES;
+    private static final int STEPS_SIZE = ShapeClosure.ID_NUM;
+    private static final int DEPTHS_SIZE = ShapeClosure.ID_NUM;
+    private static final int RECIPES_SIZE = ShapeClosure.ID_NUM * (Short.BYTES * 2 + Character.BYTES * 2 + 1);
+
+    private final ByteBuffer buffer;
+    private final Operate[] operates;
+    private final long fingerprint;
+    private final int stepsOffset;
+    private final int depthsOffset;
+    /**
+     * 各配方的起始位置，索引为 {@link RecipeDatabase.Priority#ordinal()}，不存在时为 -1.
+     */
+    private final int[] recipesOffset = new int[RecipeDatabase.Priority.values().length];
+
+    /**
+     * 使用已经检查过文件头与大小的缓冲区.
+     */
+    private ShapeDatabaseFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int sections = buffer.getInt(8);
+        this.operates = Operate.fromMask(buffer.getInt(12));
+        this.fingerprint = buffer.getLong(16);
+        int offset = HEADER_SIZE + SHAPES_SIZE;
+        stepsOffset = (sections & SECTION_STEPS) != 0 ? offset : -1;
+        offset += (sections & SECTION_STEPS) != 0 ? STEPS_SIZE : 0;
+        depthsOffset = (sections & SECTION_DEPTHS) != 0 ? offset : -1;
+        offset += (sections & SECTION_DEPTHS) != 0 ? DEPTHS_SIZE : 0;
+        for (var priority : RecipeDatabase.Priority.values()) {
+            boolean present = (sections & (SECTION_RECIPES << priority.ordinal())) != 0;
+            recipesOffset[priority.ordinal()] = present ? offset : -1;
+            offset += present ? RECIPES_SIZE : 0;
+        }
+    }
+
+    /**
+     * 以只读方式映射图形数据库文件.
+     *
+     * @param file 图形数据库文件
+     * @return 图形数据库文件
+     * @throws IOException              如果读取文件失败
+     * @throws IllegalArgumentException 如果文件格式、版本或大小不对
+     */
+    public static ShapeDatabaseFile open(File file) throws IOException {
+        return open(file, false, 0);
+    }
+
+    /**
+     * 以只读方式映射图形数据库文件，并检查文件是否由指定的规则计算得到.
+     *
+     * @param file        图形数据库文件
+     * @param fingerprint 当前规则的指纹，见 {@link RuleFingerprint}
+     * @return 图形数据库文件
+     * @throws IOException              如果读取文件失败
+     * @throws IllegalArgumentException 如果文件格式、版本或大小不对，或规则指纹不一致
+     */
+    public static ShapeDatabaseFile open(File file, long fingerprint) throws IOException {
+        return open(file, true, fingerprint);
+    }
+
+    /**
+     * 先用普通读取检查文件头，全部符合后才映射文件.
+     * <p>
+     * 文件映射后，在垃圾回收之前都无法截断或替换（Windows 下），
+     * 因此不能使用的文件不能映射，否则之后重新计算时无法覆盖该文件。
+     */
+    private static ShapeDatabaseFile open(File file, boolean checkFingerprint, long fingerprint) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // 读满文件头或到达文件末尾
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("不是图形数据库文件：" + file);
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("图形数据库文件版本为 " + version + "，当前版本为 " + VERSION);
+            }
+            long actual = header.getLong(16);
+            if (checkFingerprint && actual != fingerprint) {
+                throw new IllegalArgumentException("图形数据库文件的规则指纹为 " + RuleFingerprint.toString(actual)
+                        + "，当前规则的指纹为 " + RuleFingerprint.toString(fingerprint));
+            }
+            long size = fileSize(header.getInt(8));
+            if (channel.size() != size) {
+                throw new IllegalArgumentException("图形数据库文件大小应为 " + size + "，实际为 " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new ShapeDatabaseFile(buffer);
+        }
+    }
+
+    /**
+     * 返回文件头中的数据段标志对应的文件大小.
+     *
+     * @param sections 数据段标志
+     * @return 文件大小
+     * @throws IllegalArgumentException 如果缺少可合成图形的位图
+     */
+    private static long fileSize(int sections) {
+        if ((sections & SECTION_SHAPES) == 0) {
+            throw new IllegalArgumentException("图形数据库文件缺少可合成图形的位图");
+        }
+        long size = HEADER_SIZE + SHAPES_SIZE;
+        size += (sections & SECTION_STEPS) != 0 ? STEPS_SIZE : 0;
+        size += (sections & SECTION_DEPTHS) != 0 ? DEPTHS_SIZE : 0;
+        for (var priority : RecipeDatabase.Priority.values()) {
+            size += (sections & (SECTION_RECIPES << priority.ordinal())) != 0 ? RECIPES_SIZE : 0;
+        }
+        return size;
+    }
+
+    /**
+     * 保存图形数据库文件，先写临时文件，再替换原文件，因此写入中断时原文件不受影响.
+     *
+     * @param file     图形数据库文件
+     * @param operates 计算时允许使用的操作
+     * @param shapes   可合成图形的集合
+     * @param steps    每个图形需要的最少步骤，为 null 时不保存
+     * @param depths   每个图形的深度，为 null 时不保存
+     * @param recipes  配方数据库，可以为空
+     * @throws IOException              如果写入文件失败
+     * @throws IllegalArgumentException 如果步骤数或深度超过 255，或有两个配方数据库的比较方式相同
+     */
+    public static void write(File file, Operate[] operates, ShapeSet shapes, int[] steps, int[] depths,
+                             RecipeDatabase... recipes) throws IOException {
+        write(file, operates, RuleFingerprint.of(operates), shapes, steps, depths, recipes);
+    }
+
+    /**
+     * 保存图形数据库文件，规则指纹包括额外操作，见 {@link RuleFingerprint#of(CompiledOperations)}.
+     * <p>
+     * 文件头中的操作仍只记录内置操作；深度应由同一组操作计算，步骤数与配方只能使用内置操作。
+     *
+     * @param file       图形数据库文件
+     * @param operations 计算深度时使用的操作
+     * @param shapes     可合成图形的集合
+     * @param steps      每个图形需要的最少步骤，为 null 时不保存
+     * @param depths     每个图形的深度，为 null 时不保存
+     * @param recipes    配方数据库，可以为空
+     * @throws IOException              如果写入文件失败
+     * @throws IllegalArgumentException 如果步骤数或深度超过 255，或有两个配方数据库的比较方式相同
+     */
+    public static void write(File file, CompiledOperations operations, ShapeSet shapes, int[] steps, int[] depths,
+                             RecipeDatabase... recipes) throws IOException {
+        write(file, operations.getOperates(), RuleFingerprint.of(operations), shapes, steps, depths, recipes);
+    }
+
+    private static void write(File file, Operate[] operates, long fingerprint, ShapeSet shapes, int[] steps,
+                              int[] depths, RecipeDatabase... recipes) throws IOException {
+        int sections = SECTION_SHAPES;
+        int size = HEADER_SIZE + SHAPES_SIZE;
+        if (steps != null) {
+            sections |= SECTION_STEPS;
+            size += STEPS_SIZE;
+        }
+        if (depths != null) {
+            sections |= SECTION_DEPTHS;
+            size += DEPTHS_SIZE;
+        }
+        RecipeDatabase[] byPriority = new RecipeDatabase[RecipeDatabase.Priority.values().length];
+        for (var db : recipes) {
+            int i = db.getPriority().ordinal();
+            if (byPriority[i] != null) {
+                throw new IllegalArgumentException("配方比较方式重复：" + db.getPriority());
+            }
+            byPriority[i] = db;
+            sections |= SECTION_RECIPES << i;
+            size += RECIPES_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sections).putInt(Operate.toMask(operates))
+                .putLong(fingerprint);
+        buffer.position(HEADER_SIZE);
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            buffer.putLong(shapes.word(i));
+        }
+        if (steps != null) {
+            for (int step : steps) {
+                if (step > 0xFF) {
+                    throw new IllegalArgumentException("步骤数超过 255：" + step);
+                }
+                buffer.put((byte) step);
+            }
+        }
+        if (depths != null) {
+            for (int depth : depths) {
+                if (depth > 0xFF) {
+                    throw new IllegalArgumentException("深度超过 255：" + depth);
+                }
+                buffer.put((byte) depth);
+            }
+        }
+        for (var db : byPriority) {
+            if (db != null) {
+                putRecipes(buffer, db);
+            }
+        }
+        buffer.flip();
+        Path path = file.toPath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putRecipes(ByteBuffer buffer, RecipeDatabase db) {
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            buffer.putShort((short) db.getMaterials(id));
+        }
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            buffer.putShort((short) db.getOperations(id));
+        }
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            buffer.putChar((char) db.getParent1(id));
+        }
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            buffer.putChar((char) db.getParent2(id));
+        }
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            Operate x = db.getOperate(id);
+            buffer.put(x != null ? (byte) x.ordinal() : db.isBase(id) ? RecipeDatabase.BASE : RecipeDatabase.NONE);
+        }
+    }
+
+    /**
+     * 返回计算时允许使用的操作.
+     *
+     * @return 操作数组
+     */
+    public Operate[] getOperates() {
+        return operates.clone();
+    }
+
+    /**
+     * 返回计算时规则的指纹.
+     *
+     * @return 规则指纹，见 {@link RuleFingerprint}
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public boolean contains(int id) {
+        return (buffer.getLong(HEADER_SIZE + (id >>> 6) * Long.BYTES) & (1L << id)) != 0;
+    }
+
+    /**
+     * 返回所有可合成图形的集合，会复制整个位图.
+     *
+     * @return 可合成图形的集合
+     */
+    public ShapeSet getShapes() {
+        long[] words = new long[ShapeSet.WORD_NUM];
+        buffer.slice(HEADER_SIZE, SHAPES_SIZE).asLongBuffer().get(words);
+        return new ShapeSet(words);
+    }
+
+    public boolean hasSteps() {
+        return stepsOffset >= 0;
+    }
+
+    /**
+     * 返回图形需要的最少步骤.
+     *
+     * @param id 图形 id
+     * @return 步骤数，无法合成时为 0
+     * @throws IllegalStateException 如果文件中没有步骤数
+     */
+    public int getStep(int id) {
+        if (stepsOffset < 0) {
+            throw new IllegalStateException("图形数据库文件中没有步骤数");
+        }
+        return buffer.get(stepsOffset + id) & 0xFF;
+    }
+
+    public boolean hasDepths() {
+        return depthsOffset >= 0;
+    }
+
+    /**
+     * 返回图形的深度，见 {@link OperationClosure#getDepth}.
+     *
+     * @param id 图形 id
+     * @return 深度，单层图形为 1，无法合成时为 0
+     * @throws IllegalStateException 如果文件中没有深度
+     */
+    public int getDepth(int id) {
+        if (depthsOffset < 0) {
+            throw new IllegalStateException("图形数据库文件中没有深度");
+        }
+        return buffer.get(depthsOffset + id) & 0xFF;
+    }
+
+    public boolean hasRecipes(RecipeDatabase.Priority priority) {
+        return recipesOffset[priority.ordinal()] >= 0;
+    }
+
+    /**
+     * 读取配方数据库，会复制配方的各列.
+     *
+     * @param priority 配方的比较方式
+     * @return 配方数据库
+     * @throws IllegalStateException 如果文件中没有该比较方式的配方
+     */
+    public RecipeDatabase getRecipes(RecipeDatabase.Priority priority) {
+        int offset = recipesOffset(priority);
+        RecipeDatabase db = new RecipeDatabase(operates, priority);
+        int n = ShapeClosure.ID_NUM;
+        for (int id = 0; id < n; id++) {
+            db.set(id,
+                    buffer.getShort(offset + id * Short.BYTES),
+                    buffer.getShort(offset + n * Short.BYTES + id * Short.BYTES),
+                    buffer.get(offset + n * (Short.BYTES * 2 + Character.BYTES * 2) + id),
+                    buffer.getChar(offset + n * Short.BYTES * 2 + id * Character.BYTES),
+                    buffer.getChar(offset + n * (Short.BYTES * 2 + Character.BYTES) + id * Character.BYTES));
+        }
+        return db;
+    }
+
+    /**
+     * 返回图形最优配方的最后一步操作，直接读取映射的内存，不复制配方.
+     *
+     * @param priority 配方的比较方式
+     * @param id       图形 id
+     * @return 最后一步的操作，基础图形或无法合成时返回 null
+     * @throws IllegalStateException 如果文件中没有该比较方式的配方
+     */
+    public Operate getOperate(RecipeDatabase.Priority priority, int id) {
+        byte x = buffer.get(recipesOffset(priority) + ShapeClosure.ID_NUM * (Short.BYTES * 2 + Character.BYTES * 2) + id);
+        return x < 0 ? null : Operate.values()[x];
+    }
+
+    /**
+     * 返回图形最优配方的最后一步被操作的图形1，堆叠时为上层图形.
+     *
+     * @param priority 配方的比较方式
+     * @param id       图形 id
+     * @return 图形 id，基础图形或无法合成时返回 0
+     * @throws IllegalStateException 如果文件中没有该比较方式的配方
+     */
+    public int getParent1(RecipeDatabase.Priority priority, int id) {
+        return buffer.getChar(recipesOffset(priority) + ShapeClosure.ID_NUM * Short.BYTES * 2 + id * Character.BYTES);
+    }
+
+    /**
+     * 返回图形最优配方的最后一步被操作的图形2，只有堆叠时存在，为下层图形.
+     *
+     * @param priority 配方的比较方式
+     * @param id       图形 id
+     * @return 图形 id，不是堆叠时返回 0
+     * @throws IllegalStateException 如果文件中没有该比较方式的配方
+     */
+    public int getParent2(RecipeDatabase.Priority priority, int id) {
+        return buffer.getChar(recipesOffset(priority)
+                + ShapeClosure.ID_NUM * (Short.BYTES * 2 + Character.BYTES) + id * Character.BYTES);
+    }
+
+    private int recipesOffset(RecipeDatabase.Priority priority) {
+        int offset = recipesOffset[priority.ordinal()];
+        if (offset < 0) {
+            throw new IllegalStateException("图形数据库文件中没有配方：" + priority);
+        }
+        return offset;
+    }
+}
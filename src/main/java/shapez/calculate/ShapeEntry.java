@@ -0,0 +1,63 @@
+package shapez.calculate;
+
+/**
+ * 图形数据库文件中的一个图形，步骤数、配方在调用时才从文件读取.
+ * <p>
+ * 只保存文件与 id，创建的代价很小，适合在流中逐个生成，见 {@link GetAllShapes#entries()}。
+ *
+ * @param database 图形数据库文件
+ * @param id       图形 id
+ * @author MengLeiFudge
+ */
+public record ShapeEntry(ShapeDatabaseFile database, int id) {
+    public boolean isReachable() {
+        return database.contains(id);
+    }
+
+    /**
+     * 返回图形需要的最少步骤.
+     *
+     * @return 步骤数，无法合成时为 0
+     * @throws IllegalStateException 如果文件中没有步骤数
+     */
+    public int getStep() {
+        return database.getStep(id);
+    }
+
+    /**
+     * 返回最优配方的最后一步操作.
+     *
+     * @param priority 配方的比较方式
+     * @return 最后一步的操作，基础图形或无法合成时返回 null
+     * @throws IllegalStateException 如果文件中没有该比较方式的配方
+     */
+    public Operate getOperate(RecipeDatabase.Priority priority) {
+        return database.getOperate(priority, id);
+    }
+
+    /**
+     * 返回最优配方的最后一步被操作的图形1，堆叠时为上层图形.
+     *
+     * @param priority 配方的比较方式
+     * @return 图形 id，基础图形或无法合成时返回 0
+     * @throws IllegalStateException 如果文件中没有该比较方式的配方
+     */
+    public int getParent1(RecipeDatabase.Priority priority) {
+        return database.getParent1(priority, id);
+    }
+
+    /**
+     * 返回最优配方的最后一步被操作的图形2，只有堆叠时存在，为下层图形.
+     *
+     * @param priority 配方的比较方式
+     * @return 图形 id，不是堆叠时返回 0
+     * @throws IllegalStateException 如果文件中没有该比较方式的配方
+     */
+    public int getParent2(RecipeDatabase.Priority priority) {
+        return database.getParent2(priority, id);
+    }
+
+    public SimpleShape toSimpleShape() {
+        return new SimpleShape(id);
+    }
+}
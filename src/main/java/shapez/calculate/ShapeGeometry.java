@@ -0,0 +1,244 @@
+package shapez.calculate;
+
+/**
+ * 图形的层数与每层的部分数，以及对应的图形操作.
+ * <p>
+ * 与 {@link SimpleShape} 相同，每个部分是否存在占 1 bit，每 {@code partNum} 位表示一层，低位表示低层；
+ * 每层从低位到高位按顺时针排列，第 0 部分为右上方第一个部分。层数乘部分数不超过 64，因此 id 使用 long。
+ * 旋转、切割所需的掩码由层数与部分数生成，不再手写，例如 4 × 4 时顺时针旋转的掩码为 0x7777 与 0x8888。
+ * <p>
+ * 操作与 {@link Operate} 的对应关系：
+ * <ul>
+ *     <li>左右切割：左半部分为第 partNum / 2 到 partNum - 1 部分，需要部分数为偶数</li>
+ *     <li>四分切割：只保留一个部分，只支持每层 4 个部分</li>
+ *     <li>旋转：顺时针、逆时针旋转 1 个部分，旋转 180 度为旋转 partNum / 2 个部分，需要部分数为偶数</li>
+ *     <li>堆叠：上层图形从最高层之上下落，直至与下层图形相碰，超出最高层的部分被去掉</li>
+ * </ul>
+ * 4 × 4 的结果与 {@link SimpleShapes} 完全相同，但批量计算时请使用查表的 {@link OperateTable} 与 {@link StackTable}。
+ *
+ * @author MengLeiFudge
+ */
+public final class ShapeGeometry {
+    /**
+     * 原版图形，4 层，每层 4 个部分.
+     */
+    public static final ShapeGeometry STANDARD = new ShapeGeometry(4, 4);
+
+    private final int layerNum;
+    private final int partNum;
+    /**
+     * 一层的所有部分.
+     */
+    private final long layerMask;
+    /**
+     * 所有层的所有部分.
+     */
+    private final long fullMask;
+    /**
+     * 每层的第 0 部分.
+     */
+    private final long lowestParts;
+
+    /**
+     * 创建图形规格.
+     *
+     * @param layerNum 层数
+     * @param partNum  每层的部分数
+     * @throws IllegalArgumentException 如果层数或部分数小于 1，或两者之积大于 64
+     */
+    public ShapeGeometry(int layerNum, int partNum) {
+        if (layerNum < 1 || partNum < 1 || layerNum * partNum > Long.SIZE) {
+            throw new IllegalArgumentException("层数、部分数不合规：" + layerNum + " × " + partNum);
+        }
+        this.layerNum = layerNum;
+        this.partNum = partNum;
+        this.layerMask = partNum == Long.SIZE ? -1L : (1L << partNum) - 1;
+        long lowest = 0;
+        for (int layer = 0; layer < layerNum; layer++) {
+            lowest |= 1L << (layer * partNum);
+        }
+        this.lowestParts = lowest;
+        this.fullMask = repeat(layerMask);
+    }
+
+    public int getLayerNum() {
+        return layerNum;
+    }
+
+    public int getPartNum() {
+        return partNum;
+    }
+
+    /**
+     * 返回 id 的位数.
+     *
+     * @return 层数乘部分数
+     */
+    public int getBitNum() {
+        return layerNum * partNum;
+    }
+
+    public boolean isStandard() {
+        return layerNum == 4 && partNum == 4;
+    }
+
+    /**
+     * 返回一层中所有部分都存在的图形，即单层图形 id 的最大值.
+     *
+     * @return 一层的掩码
+     */
+    public long getLayerMask() {
+        return layerMask;
+    }
+
+    /**
+     * 将一层的掩码复制到每一层.
+     *
+     * @param layer 一层的掩码，只使用低 partNum 位
+     * @return 所有层的掩码
+     */
+    public long repeat(long layer) {
+        return lowestParts * (layer & layerMask);
+    }
+
+    /**
+     * 顺时针旋转 parts 个部分.
+     *
+     * @param id    图形 id
+     * @param parts 旋转的部分数，范围为 0 - partNum - 1
+     * @return 旋转后的图形 id
+     */
+    public long rotate(long id, int parts) {
+        if (parts == 0) {
+            return id;
+        }
+        // 4 × 4 旋转 1 个部分时，low 为 0x7777，high 为 0x8888
+        long low = repeat((1L << (partNum - parts)) - 1);
+        long high = fullMask & ~low;
+        return ((id & low) << parts) | ((id & high) >>> (partNum - parts));
+    }
+
+    /**
+     * 切割，只保留每层中掩码对应的部分，并去掉切割后的空层.
+     *
+     * @param id   图形 id
+     * @param mask 一层的掩码
+     * @return 切割后的最简图形 id
+     */
+    public long cut(long id, long mask) {
+        long ret = 0;
+        int shift = 0;
+        for (int layer = 0; layer < layerNum; layer++) {
+            long x = (id >>> (layer * partNum)) & mask & layerMask;
+            if (x != 0) {
+                ret |= x << shift;
+                shift += partNum;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 将上层图形堆叠在下层图形上.
+     *
+     * @param top    上层图形 id
+     * @param bottom 下层图形 id
+     * @return 堆叠后的图形 id
+     */
+    public long stack(long top, long bottom) {
+        // 从最高层之上开始下落，第一次相碰时退回上一个位置
+        int offset = 0;
+        for (int layer = layerNum - 1; layer >= 0; layer--) {
+            if ((bottom & (top << (layer * partNum))) != 0) {
+                offset = layer + 1;
+                break;
+            }
+        }
+        if (offset == layerNum) {
+            return bottom;
+        }
+        return bottom | ((top << (offset * partNum)) & fullMask);
+    }
+
+    /**
+     * 返回切割操作保留的部分.
+     *
+     * @param operate 切割操作
+     * @return 一层的掩码
+     * @throws IllegalArgumentException 如果不是切割，或该规格不支持该切割
+     */
+    public long cutMask(Operate operate) {
+        return switch (operate) {
+            case LEFT -> layerMask & ~halfMask();
+            case RIGHT -> halfMask();
+            case TOP_RIGHT, BOTTOM_RIGHT, BOTTOM_LEFT, TOP_LEFT -> {
+                if (partNum != 4) {
+                    throw new IllegalArgumentException("四分切割只支持每层 4 个部分：" + this);
+                }
+                yield 1L << (operate.ordinal() - Operate.TOP_RIGHT.ordinal());
+            }
+            default -> throw new IllegalArgumentException(operate + " 不是切割");
+        };
+    }
+
+    private long halfMask() {
+        if (partNum % 2 != 0) {
+            throw new IllegalArgumentException("左右切割需要每层有偶数个部分：" + this);
+        }
+        return (1L << (partNum / 2)) - 1;
+    }
+
+    /**
+     * 单图形操作.
+     *
+     * @param operate 单图形操作
+     * @param id      图形 id
+     * @return 结果图形 id
+     * @throws IllegalArgumentException 如果操作是堆叠，或该规格不支持该操作
+     */
+    public long apply(Operate operate, long id) {
+        return switch (operate) {
+            case R90 -> rotate(id, 1 % partNum);
+            case R180 -> rotate(id, halfParts());
+            case R270 -> rotate(id, partNum - 1);
+            case STACK -> throw new IllegalArgumentException("堆叠不是单图形操作");
+            default -> cut(id, cutMask(operate));
+        };
+    }
+
+    private int halfParts() {
+        if (partNum % 2 != 0) {
+            throw new IllegalArgumentException("旋转 180 度需要每层有偶数个部分：" + this);
+        }
+        return partNum / 2;
+    }
+
+    /**
+     * 检查该规格是否支持所有操作.
+     *
+     * @param operates 操作
+     * @throws IllegalArgumentException 如果不支持某个操作
+     */
+    public void check(Operate[] operates) {
+        for (var x : operates) {
+            if (x != Operate.STACK) {
+                apply(x, 0);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ShapeGeometry other && layerNum == other.layerNum && partNum == other.partNum;
+    }
+
+    @Override
+    public int hashCode() {
+        return layerNum * 65 + partNum;
+    }
+
+    @Override
+    public String toString() {
+        return layerNum + "x" + partNum;
+    }
+}
@@ -0,0 +1,263 @@
+package shapez.calculate;
+
+import java.util.Arrays;
+
+/**
+ * 图形属性的位图索引，用于组合查询.
+ * <p>
+ * 与规则无关的属性（层数、角的个数、旋转等价类的大小、是否悬空）对所有 65536 个 id 预先计算，
+ * 由静态方法查询；与规则相关的属性（能否合成、深度）由每个规则配置的计算结果创建实例后查询。
+ * 每个属性值对应一个位图，查询只是取出位图并按 long 组合，见 {@link ShapeQuery}。
+ * <p>
+ * 深度为 {@link OperationClosure} 严格分层的结果，与计算顺序无关；
+ * {@link ShapeClosure} 的步骤数依赖处理顺序，同一层中先得到的图形会让后面的图形步骤数偏小，不适合查询。
+ * 深度按“至少 n”保存，第 n 个位图为深度不小于 n 的可合成图形，
+ * 因此深度的范围查询也只需要一次位运算。
+ *
+ * @author MengLeiFudge
+ */
+public final class ShapeIndex {
+    /**
+     * 层数为 n 的图形，索引为 0 - 4.
+     */
+    private static final long[][] LAYERS = new long[5][ShapeSet.WORD_NUM];
+    /**
+     * 角的个数为 n 的图形，索引为 0 - 16.
+     */
+    private static final long[][] CORNERS = new long[17][ShapeSet.WORD_NUM];
+    /**
+     * 旋转等价类大小为 1、2、4 的图形，索引为 0 - 2.
+     */
+    private static final long[][] ORBITS = new long[3][ShapeSet.WORD_NUM];
+    private static final long[] SUSPEND = new long[ShapeSet.WORD_NUM];
+    private static final long[] ALL = new long[ShapeSet.WORD_NUM];
+
+    static {
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            long bit = 1L << id;
+            int u = id >>> 6;
+            LAYERS[layerNum(id)][u] |= bit;
+            CORNERS[Integer.bitCount(id)][u] |= bit;
+            ORBITS[Integer.numberOfTrailingZeros(RotationTable.orbitSize(id))][u] |= bit;
+            if (isSuspend(id)) {
+                SUSPEND[u] |= bit;
+            }
+        }
+        Arrays.fill(ALL, -1L);
+    }
+
+    private final long[] reachable;
+    /**
+     * 第 n 个位图为深度不小于 n 的可合成图形，最后一个位图为空.
+     */
+    private final long[][] depthsAtLeast;
+
+    /**
+     * 由可合成图形与深度创建索引.
+     *
+     * @param shapes 可合成图形的集合，会复制
+     * @param depths 每个图形的深度，见 {@link OperationClosure#getDepth}，值为 0 表示无法合成，
+     *               为 null 时没有深度的索引
+     */
+    public ShapeIndex(ShapeSet shapes, int[] depths) {
+        reachable = new long[ShapeSet.WORD_NUM];
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            reachable[i] = shapes.word(i);
+        }
+        if (depths == null) {
+            depthsAtLeast = null;
+            return;
+        }
+        int maxDepth = 0;
+        for (int depth : depths) {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        // 先按深度分组，再从大到小累加
+        depthsAtLeast = new long[maxDepth + 2][ShapeSet.WORD_NUM];
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            if (depths[id] != 0 && (reachable[id >>> 6] & (1L << id)) != 0) {
+                depthsAtLeast[depths[id]][id >>> 6] |= 1L << id;
+            }
+        }
+        for (int depth = maxDepth - 1; depth >= 1; depth--) {
+            for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+                depthsAtLeast[depth][i] |= depthsAtLeast[depth + 1][i];
+            }
+        }
+    }
+
+    /**
+     * 由图形数据库文件创建索引.
+     *
+     * @param database 图形数据库文件
+     * @return 索引，文件中没有深度时没有深度的索引
+     */
+    public static ShapeIndex of(ShapeDatabaseFile database) {
+        int[] depths = null;
+        if (database.hasDepths()) {
+            depths = new int[ShapeClosure.ID_NUM];
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                depths[id] = database.getDepth(id);
+            }
+        }
+        return new ShapeIndex(database.getShapes(), depths);
+    }
+
+    /**
+     * 返回图形的层数，即最高的非空层的层号加 1.
+     *
+     * @param id 图形 id
+     * @return 0 - 4
+     */
+    static int layerNum(int id) {
+        return (35 - Integer.numberOfLeadingZeros(id)) >>> 2;
+    }
+
+    /**
+     * 返回图形是否悬空，即是否有相邻两层没有任何一个角上下相接，与 {@code Shape#isSuspend()} 相同.
+     *
+     * @param id 图形 id
+     * @return 是否悬空
+     */
+    static boolean isSuspend(int id) {
+        for (int layer = 0; layer < layerNum(id) - 1; layer++) {
+            if (((id >>> (layer * 4)) & (id >>> (layer * 4 + 4)) & 0xF) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 所有 65536 个 id，包括 0.
+     *
+     * @return 查询条件
+     */
+    public static ShapeQuery all() {
+        return new ShapeQuery(ALL);
+    }
+
+    /**
+     * 层数为 n 的图形.
+     *
+     * @param n 层数，0 - 4
+     * @return 查询条件
+     */
+    public static ShapeQuery layers(int n) {
+        if (n < 0 || n > 4) {
+            throw new IllegalArgumentException("层数不是0-4：" + n);
+        }
+        return new ShapeQuery(LAYERS[n]);
+    }
+
+    /**
+     * 有 n 个角的图形.
+     *
+     * @param n 角的个数，0 - 16
+     * @return 查询条件
+     */
+    public static ShapeQuery corners(int n) {
+        if (n < 0 || n > 16) {
+            throw new IllegalArgumentException("角的个数不是0-16：" + n);
+        }
+        return new ShapeQuery(CORNERS[n]);
+    }
+
+    /**
+     * 旋转等价类大小为 size 的图形，1 表示旋转 90 度不变，2 表示只有旋转 180 度不变，4 表示没有对称性.
+     *
+     * @param size 旋转等价类的大小，见 {@link RotationTable#orbitSize(int)}
+     * @return 查询条件
+     */
+    public static ShapeQuery orbitSize(int size) {
+        return switch (size) {
+            case 1 -> new ShapeQuery(ORBITS[0]);
+            case 2 -> new ShapeQuery(ORBITS[1]);
+            case 4 -> new ShapeQuery(ORBITS[2]);
+            default -> throw new IllegalArgumentException("旋转等价类的大小不是1、2、4：" + size);
+        };
+    }
+
+    /**
+     * 悬空的图形，见 {@link #isSuspend(int)}.
+     *
+     * @return 查询条件
+     */
+    public static ShapeQuery suspend() {
+        return new ShapeQuery(SUSPEND);
+    }
+
+    /**
+     * 可合成的图形.
+     *
+     * @return 查询条件
+     */
+    public ShapeQuery reachable() {
+        return new ShapeQuery(reachable);
+    }
+
+    public boolean hasDepths() {
+        return depthsAtLeast != null;
+    }
+
+    /**
+     * 深度为 n 的可合成图形.
+     *
+     * @param n 深度
+     * @return 查询条件
+     * @throws IllegalStateException 如果没有深度的索引
+     */
+    public ShapeQuery depth(int n) {
+        return depthBetween(n, n);
+    }
+
+    /**
+     * 深度不小于 n 的可合成图形.
+     *
+     * @param n 深度
+     * @return 查询条件
+     * @throws IllegalStateException 如果没有深度的索引
+     */
+    public ShapeQuery depthAtLeast(int n) {
+        return new ShapeQuery(atLeast(n));
+    }
+
+    /**
+     * 深度不大于 n 的可合成图形.
+     *
+     * @param n 深度
+     * @return 查询条件
+     * @throws IllegalStateException 如果没有深度的索引
+     */
+    public ShapeQuery depthAtMost(int n) {
+        return depthBetween(1, n);
+    }
+
+    /**
+     * 深度在 [min, max] 范围内的可合成图形.
+     *
+     * @param min 最小深度
+     * @param max 最大深度
+     * @return 查询条件
+     * @throws IllegalStateException 如果没有深度的索引
+     */
+    public ShapeQuery depthBetween(int min, int max) {
+        long[] low = atLeast(min);
+        long[] high = atLeast(Math.max(min, max + 1));
+        long[] result = new long[ShapeSet.WORD_NUM];
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            result[i] = low[i] & ~high[i];
+        }
+        return new ShapeQuery(result);
+    }
+
+    /**
+     * 返回深度不小于 n 的可合成图形的位图，不复制.
+     */
+    private long[] atLeast(int n) {
+        if (depthsAtLeast == null) {
+            throw new IllegalStateException("索引中没有深度");
+        }
+        return depthsAtLeast[Math.max(1, Math.min(n, depthsAtLeast.length - 1))];
+    }
+}
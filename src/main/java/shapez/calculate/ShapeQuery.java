@@ -0,0 +1,146 @@
+package shapez.calculate;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 图形 id 的查询条件，即满足条件的 id 的位图.
+ * <p>
+ * 由 {@link ShapeIndex} 的索引得到，与、或、非都按 long 逐个计算，每次得到一个新的查询条件，
+ * 原有的条件不会改变，因此可以任意复用、在多个线程中共享。
+ * 例如“所有可合成、深度至少为 6、没有悬空层的 4 层图形”为：
+ * <pre>{@code
+ * ShapeIndex.layers(4).and(index.depthAtLeast(6)).andNot(ShapeIndex.suspend())
+ * }</pre>
+ *
+ * @author MengLeiFudge
+ */
+public final class ShapeQuery {
+    private final long[] words;
+
+    /**
+     * 直接使用给定的位图创建查询条件，不复制，调用者之后不能再修改该位图.
+     *
+     * @param words 长度为 {@link ShapeSet#WORD_NUM} 的位图
+     */
+    ShapeQuery(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * 返回在给定集合中的图形.
+     *
+     * @param shapes 图形集合，会复制
+     * @return 查询条件
+     */
+    public static ShapeQuery of(ShapeSet shapes) {
+        long[] words = new long[ShapeSet.WORD_NUM];
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            words[i] = shapes.word(i);
+        }
+        return new ShapeQuery(words);
+    }
+
+    public ShapeQuery and(ShapeQuery other) {
+        long[] result = new long[ShapeSet.WORD_NUM];
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            result[i] = words[i] & other.words[i];
+        }
+        return new ShapeQuery(result);
+    }
+
+    public ShapeQuery or(ShapeQuery other) {
+        long[] result = new long[ShapeSet.WORD_NUM];
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            result[i] = words[i] | other.words[i];
+        }
+        return new ShapeQuery(result);
+    }
+
+    /**
+     * 满足当前条件、且不满足另一个条件，与 {@code and(other.not())} 相同，但少一次遍历.
+     *
+     * @param other 另一个条件
+     * @return 查询条件
+     */
+    public ShapeQuery andNot(ShapeQuery other) {
+        long[] result = new long[ShapeSet.WORD_NUM];
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            result[i] = words[i] & ~other.words[i];
+        }
+        return new ShapeQuery(result);
+    }
+
+    /**
+     * 不满足当前条件，范围为所有 65536 个 id，包括 0.
+     *
+     * @return 查询条件
+     */
+    public ShapeQuery not() {
+        long[] result = new long[ShapeSet.WORD_NUM];
+        for (int i = 0; i < ShapeSet.WORD_NUM; i++) {
+            result[i] = ~words[i];
+        }
+        return new ShapeQuery(result);
+    }
+
+    public boolean test(int id) {
+        return (words[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * 返回满足条件的图形个数.
+     *
+     * @return 图形个数
+     */
+    public int count() {
+        int num = 0;
+        for (long word : words) {
+            num += Long.bitCount(word);
+        }
+        return num;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按 id 升序遍历满足条件的图形.
+     *
+     * @param action 对每个图形 id 执行的操作
+     */
+    public void forEach(IntConsumer action) {
+        for (int u = 0; u < ShapeSet.WORD_NUM; u++) {
+            long word = words[u];
+            while (word != 0) {
+                action.accept((u << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * 返回满足条件的图形 id 的流，按 id 升序，可以直接转为并行流.
+     *
+     * @return 图形 id 的流
+     */
+    public IntStream stream() {
+        return StreamSupport.intStream(new ShapeSpliterator(words), false);
+    }
+
+    /**
+     * 返回满足条件的图形的集合，会复制位图.
+     *
+     * @return 图形集合
+     */
+    public ShapeSet toShapeSet() {
+        return new ShapeSet(words.clone());
+    }
+}
@@ -0,0 +1,278 @@
+package shapez.calculate;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 图形 id 的集合，使用位图存储.
+ * <p>
+ * 0x0000 - 0xffff 共 65536 个 id，每个 id 占 1 bit，一共 1024 个 long，即 8 KB。
+ * 并、交、差按 long 逐个计算，计数使用 {@link Long#bitCount(long)}，遍历按 id 升序进行。
+ *
+ * @author MengLeiFudge
+ */
+public final class ShapeSet {
+    /**
+     * 位图的 long 个数.
+     */
+    static final int WORD_NUM = ShapeClosure.ID_NUM >>> 6;
+
+    private final long[] words;
+
+    public ShapeSet() {
+        this(new long[WORD_NUM]);
+    }
+
+    /**
+     * 直接使用给定的位图创建集合，不复制.
+     *
+     * @param words 长度为 {@link #WORD_NUM} 的位图
+     */
+    ShapeSet(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * 返回位图的第 index 个 long.
+     *
+     * @param index 序号，范围为 0 - {@link #WORD_NUM} - 1
+     * @return 对应的 64 个 id 是否存在
+     */
+    long word(int index) {
+        return words[index];
+    }
+
+    /**
+     * 添加图形.
+     *
+     * @param id 图形 id
+     * @return 如果该图形原先不在集合中，返回 true
+     */
+    public boolean add(int id) {
+        long bit = 1L << id;
+        long word = words[id >>> 6];
+        words[id >>> 6] = word | bit;
+        return (word & bit) == 0;
+    }
+
+    public void remove(int id) {
+        words[id >>> 6] &= ~(1L << id);
+    }
+
+    public boolean contains(int id) {
+        return (words[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * 并集，结果保存在当前集合中.
+     *
+     * @param other 另一个集合
+     */
+    public void or(ShapeSet other) {
+        for (int i = 0; i < WORD_NUM; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    /**
+     * 交集，结果保存在当前集合中.
+     *
+     * @param other 另一个集合
+     */
+    public void and(ShapeSet other) {
+        for (int i = 0; i < WORD_NUM; i++) {
+            words[i] &= other.words[i];
+        }
+    }
+
+    /**
+     * 差集，结果保存在当前集合中.
+     *
+     * @param other 另一个集合
+     */
+    public void andNot(ShapeSet other) {
+        for (int i = 0; i < WORD_NUM; i++) {
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    /**
+     * 返回集合中的图形个数.
+     *
+     * @return 图形个数
+     */
+    public int cardinality() {
+        int num = 0;
+        for (long word : words) {
+            num += Long.bitCount(word);
+        }
+        return num;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 返回集合中不小于 fromId 的第一个图形 id.
+     * <p>
+     * 遍历过程中新加入的、位于游标之后的图形也会被访问到。
+     *
+     * @param fromId 起始 id
+     * @return 图形 id，不存在时返回 -1
+     */
+    public int nextSetBit(int fromId) {
+        int u = fromId >>> 6;
+        if (u >= WORD_NUM) {
+            return -1;
+        }
+        long word = words[u] & (-1L << fromId);
+        while (word == 0) {
+            if (++u == WORD_NUM) {
+                return -1;
+            }
+            word = words[u];
+        }
+        return (u << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * 按 id 升序遍历集合中的图形.
+     *
+     * @param action 对每个图形 id 执行的操作
+     */
+    public void forEach(IntConsumer action) {
+        for (int u = 0; u < WORD_NUM; u++) {
+            long word = words[u];
+            while (word != 0) {
+                action.accept((u << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * 返回按 id 升序遍历集合的 {@link Spliterator.OfInt}，可以按位图均匀拆分，遍历期间不应修改集合.
+     *
+     * @return 图形 id 的 Spliterator
+     */
+    public Spliterator.OfInt spliterator() {
+        return new ShapeSpliterator(words);
+    }
+
+    /**
+     * 返回集合中图形 id 的流，不复制集合、不装箱，可以直接转为并行流.
+     *
+     * @return 按 id 升序的流
+     */
+    public IntStream stream() {
+        return StreamSupport.intStream(spliterator(), false);
+    }
+
+    /**
+     * 返回按 id 升序排列的所有图形.
+     *
+     * @return 图形 id 数组
+     */
+    public int[] toArray() {
+        int[] ids = new int[cardinality()];
+        int[] size = {0};
+        forEach(id -> ids[size[0]++] = id);
+        return ids;
+    }
+
+    public ShapeSet copy() {
+        return new ShapeSet(words.clone());
+    }
+
+    /**
+     * 读取 json 数组格式的图形 id 列表.
+     * <p>
+     * 直接逐字节解析数字，不会生成 Integer 对象。
+     * 只接受由非负整数组成的一维数组，元素之间用逗号分隔，括号、逗号前后可以有空白字符。
+     *
+     * @param file json 文件
+     * @return 图形集合
+     * @throws IOException              如果读取文件失败
+     * @throws IllegalArgumentException 如果文件不是这种格式，或者有超出范围的 id
+     */
+    public static ShapeSet readJson(File file) throws IOException {
+        byte[] bytes = FileUtils.readFileToByteArray(file);
+        ShapeSet set = new ShapeSet();
+        int i = skipWhitespace(bytes, 0);
+        if (i == bytes.length || bytes[i] != '[') {
+            throw new IllegalArgumentException("不是 json 数组：" + file);
+        }
+        i = skipWhitespace(bytes, i + 1);
+        if (i < bytes.length && bytes[i] == ']') {
+            i++;
+        } else {
+            while (true) {
+                int start = i;
+                int id = 0;
+                for (; i < bytes.length && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                    id = id * 10 + (bytes[i] - '0');
+                    if (id >= ShapeClosure.ID_NUM) {
+                        throw new IllegalArgumentException("图形 id 超出范围：" + id);
+                    }
+                }
+                if (i == start) {
+                    throw new IllegalArgumentException("位置 " + i + " 处不是图形 id：" + file);
+                }
+                set.add(id);
+                i = skipWhitespace(bytes, i);
+                if (i == bytes.length) {
+                    throw new IllegalArgumentException("json 数组没有结束：" + file);
+                }
+                if (bytes[i] == ']') {
+                    i++;
+                    break;
+                }
+                if (bytes[i] != ',') {
+                    throw new IllegalArgumentException("位置 " + i + " 处应为逗号：" + file);
+                }
+                i = skipWhitespace(bytes, i + 1);
+            }
+        }
+        if (skipWhitespace(bytes, i) != bytes.length) {
+            throw new IllegalArgumentException("json 数组之后还有内容：" + file);
+        }
+        return set;
+    }
+
+    private static int skipWhitespace(byte[] bytes, int i) {
+        while (i < bytes.length && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\n' || bytes[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 以 json 数组格式保存图形 id 列表，格式与 fastjson 的 PrettyFormat 相同.
+     *
+     * @param file json 文件
+     * @throws IOException 如果写入文件失败
+     */
+    public void writeJson(File file) throws IOException {
+        StringBuilder sb = new StringBuilder(cardinality() * 8 + 4).append('[');
+        forEach(id -> sb.append("\n\t").append(id).append(','));
+        if (sb.length() > 1) {
+            sb.setLength(sb.length() - 1);
+            sb.append('\n');
+        }
+        sb.append(']');
+        FileUtils.writeStringToFile(file, sb.toString(), StandardCharsets.UTF_8);
+    }
+}
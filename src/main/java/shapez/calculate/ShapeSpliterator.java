@@ -0,0 +1,118 @@
+package shapez.calculate;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * 按 id 升序遍历位图中图形的 {@link Spliterator.OfInt}.
+ * <p>
+ * 直接读取位图，不复制、不装箱；拆分时按 long 对半分，两半的图形个数都可以精确计算，
+ * 因此并行流可以均匀地分配任务。遍历期间位图不应被修改。
+ *
+ * @author MengLeiFudge
+ */
+final class ShapeSpliterator implements Spliterator.OfInt {
+    private static final int CHARACTERISTICS = ORDERED | DISTINCT | SORTED | NONNULL | SIZED | SUBSIZED;
+
+    private final long[] words;
+    /**
+     * 当前 long 的序号，以及其中尚未遍历的位.
+     */
+    private int index;
+    private long word;
+    /**
+     * 遍历范围的结束位置（不含）.
+     */
+    private final int end;
+    private long size;
+
+    /**
+     * 遍历整个位图.
+     *
+     * @param words 长度为 {@link ShapeSet#WORD_NUM} 的位图
+     */
+    ShapeSpliterator(long[] words) {
+        this(words, 0, words[0], words.length, count(words, 0, words.length));
+    }
+
+    private ShapeSpliterator(long[] words, int index, long word, int end, long size) {
+        this.words = words;
+        this.index = index;
+        this.word = word;
+        this.end = end;
+        this.size = size;
+    }
+
+    private static long count(long[] words, int from, int to) {
+        long num = 0;
+        for (int i = from; i < to; i++) {
+            num += Long.bitCount(words[i]);
+        }
+        return num;
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+        while (word == 0) {
+            if (++index >= end) {
+                index = end;
+                return false;
+            }
+            word = words[index];
+        }
+        int id = (index << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+        size--;
+        action.accept(id);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(IntConsumer action) {
+        long w = word;
+        int u = index;
+        index = end;
+        word = 0;
+        size = 0;
+        while (u < end) {
+            while (w != 0) {
+                action.accept((u << 6) + Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+            if (++u < end) {
+                w = words[u];
+            }
+        }
+    }
+
+    @Override
+    public Spliterator.OfInt trySplit() {
+        int mid = (index + end) >>> 1;
+        if (mid <= index) {
+            return null;
+        }
+        // 当前 long 可能已遍历了一部分，随前一半一起交出
+        ShapeSpliterator prefix = new ShapeSpliterator(words, index, word, mid,
+                Long.bitCount(word) + count(words, index + 1, mid));
+        index = mid;
+        word = words[mid];
+        size -= prefix.size;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    @Override
+    public Comparator<? super Integer> getComparator() {
+        return null;
+    }
+}
@@ -2,6 +2,9 @@ package shapez.calculate;
 
 /**
  * 表示一个没有角的形状、颜色信息，只有角存在与否信息的图形.
+ * <p>
+ * 该类的各个方法会创建新的对象，在循环中大量调用时请使用 {@link SimpleShapes} 的静态方法，
+ * 批量计算时请使用由其生成的 {@link OperateTable}。
  *
  * @param id 图形 id.
  *           <p>
@@ -35,22 +38,13 @@ public record SimpleShape(int id) {
      * @param angle 旋转角度
      * @return 旋转后的图形
      */
-    private SimpleShape rotate(int angle) {
-        switch (angle) {
-            case 90 -> {
-                //0x7777: 0111 0111 0111 0111  0x8888: 1000 1000 1000 1000
-                return new SimpleShape(((id & 0x7777) << 1) | ((id & 0x8888) >>> 3));
-            }
-            case 180 -> {
-                //0x3333: 0011 0011 0011 0011  0xCCCC: 1100 1100 1100 1100
-                return new SimpleShape(((id & 0x3333) << 2) | ((id & 0xCCCC) >>> 2));
-            }
-            case 270 -> {
-                //0x1111: 0001 0001 0001 0001  0xEEEE: 1110 1110 1110 1110
-                return new SimpleShape(((id & 0x1111) << 3) | ((id & 0xEEEE) >>> 1));
-            }
+    SimpleShape rotate(int angle) {
+        return switch (angle) {
+            case 90 -> new SimpleShape(SimpleShapes.rotate90(id));
+            case 180 -> new SimpleShape(SimpleShapes.rotate180(id));
+            case 270 -> new SimpleShape(SimpleShapes.rotate270(id));
             default -> throw new IllegalArgumentException("Invalid angle: " + angle);
-        }
+        };
     }
 
     /**
@@ -80,7 +74,7 @@ public record SimpleShape(int id) {
      * @param filter 层筛选器
      * @return 根据层筛选器切割后的最简图形的id
      */
-    private SimpleShape cutBC(int filter) {
+    SimpleShape cutBC(int filter) {
         int id = this.id;
         int ret = 0;
         while (id != 0) {
@@ -104,24 +98,8 @@ public record SimpleShape(int id) {
      * @param filter 层筛选器
      * @return 根据层筛选器切割后的最简图形的id
      */
-    private SimpleShape cutAX(int filter) {
-        int ret = 0;
-        // 空层数目
-        int q = 0;
-        for (int i = 0; i < 4; i++) {
-            // 取出指定层
-            int temp = id & filter;
-            if (temp > 0) {
-                // 该层非空，该层右移空层数后添加到ret里面
-                ret |= temp >>> q;
-            } else {
-                // 该层空，空层计数增加
-                q += 4;
-            }
-            //层筛选器上移
-            filter <<= 4;
-        }
-        return new SimpleShape(ret);
+    SimpleShape cutAX(int filter) {
+        return new SimpleShape(SimpleShapes.cut(id, filter));
     }
 
     /**
@@ -130,22 +108,8 @@ public record SimpleShape(int id) {
      * @param bottomShape 堆叠的底层图形
      * @return 堆叠后的图形
      */
-    private SimpleShape stackOn(SimpleShape bottomShape) {
-        // 上层图形放到高16位
-        int top = this.id << 16;
-        int bottom = bottomShape.id;
-        // 将上层图形下移，直至碰到地板（次数到达4次），或者上下图形重合
-        for (int i = 0; i < 4; i++) {
-            // 必须用无符号右移>>>
-            top >>>= 4;
-            // 如果有重合部分，则将上层图形上移
-            if ((bottom & top) != 0) {
-                top <<= 4;
-                break;
-            }
-        }
-        // 上层图形除去高于四层的部分后，与下层图形合到一起
-        return new SimpleShape(bottom | (top & 0xFFFF));
+    SimpleShape stackOn(SimpleShape bottomShape) {
+        return new SimpleShape(SimpleShapes.stack(id, bottomShape.id));
     }
 
     public String getIdStr() {
@@ -0,0 +1,155 @@
+package shapez.calculate;
+
+/**
+ * 直接对图形 id 进行操作的静态方法.
+ * <p>
+ * 与 {@link SimpleShape} 的各个方法结果相同，但参数与返回值都是 int，
+ * 不创建任何对象，也没有可变参数数组，适合在循环中大量调用。
+ * <p>
+ * id 的格式见 {@link SimpleShape}：每 4 位表示一层，低位表示低层；
+ * 每层从低位到高位依次表示右上、右下、左下、左上。
+ *
+ * @author MengLeiFudge
+ */
+public final class SimpleShapes {
+    private SimpleShapes() {
+    }
+
+    /**
+     * 右上象限的层筛选器.
+     */
+    public static final int TOP_RIGHT = 0b0001;
+    /**
+     * 右下象限的层筛选器.
+     */
+    public static final int BOTTOM_RIGHT = 0b0010;
+    /**
+     * 左下象限的层筛选器.
+     */
+    public static final int BOTTOM_LEFT = 0b0100;
+    /**
+     * 左上象限的层筛选器.
+     */
+    public static final int TOP_LEFT = 0b1000;
+    /**
+     * 右半部分的层筛选器.
+     */
+    public static final int RIGHT = TOP_RIGHT | BOTTOM_RIGHT;
+    /**
+     * 左半部分的层筛选器.
+     */
+    public static final int LEFT = BOTTOM_LEFT | TOP_LEFT;
+
+    /**
+     * 顺时针旋转 90 度.
+     * <p>
+     * 将每层表示右上、右下、左下的 bit 左移 1 位，表示左上的 bit 右移 3 位。
+     *
+     * @param id 图形 id
+     * @return 旋转后的图形 id
+     */
+    public static int rotate90(int id) {
+        //0x7777: 0111 0111 0111 0111  0x8888: 1000 1000 1000 1000
+        return ((id & 0x7777) << 1) | ((id & 0x8888) >>> 3);
+    }
+
+    /**
+     * 旋转 180 度.
+     *
+     * @param id 图形 id
+     * @return 旋转后的图形 id
+     */
+    public static int rotate180(int id) {
+        //0x3333: 0011 0011 0011 0011  0xCCCC: 1100 1100 1100 1100
+        return ((id & 0x3333) << 2) | ((id & 0xCCCC) >>> 2);
+    }
+
+    /**
+     * 逆时针旋转 90 度.
+     *
+     * @param id 图形 id
+     * @return 旋转后的图形 id
+     */
+    public static int rotate270(int id) {
+        //0x1111: 0001 0001 0001 0001  0xEEEE: 1110 1110 1110 1110
+        return ((id & 0x1111) << 3) | ((id & 0xEEEE) >>> 1);
+    }
+
+    /**
+     * 切割，只保留层筛选器对应的象限，并去掉切割后的空层.
+     *
+     * @param id   图形 id
+     * @param mask 层筛选器，4 位，如 {@link #LEFT}
+     * @return 切割后的最简图形 id
+     */
+    public static int cut(int id, int mask) {
+        int ret = 0;
+        // 空层数目
+        int q = 0;
+        for (int i = 0; i < 4; i++) {
+            // 取出指定层
+            int temp = id & mask;
+            if (temp > 0) {
+                // 该层非空，该层右移空层数后添加到ret里面
+                ret |= temp >>> q;
+            } else {
+                // 该层空，空层计数增加
+                q += 4;
+            }
+            //层筛选器上移
+            mask <<= 4;
+        }
+        return ret;
+    }
+
+    /**
+     * 将上层图形堆叠在下层图形上.
+     * <p>
+     * 批量计算时请使用查表实现的 {@link StackTable#stack}。
+     *
+     * @param top    上层图形 id
+     * @param bottom 下层图形 id
+     * @return 堆叠后的图形 id
+     */
+    public static int stack(int top, int bottom) {
+        // 上层图形放到高16位
+        top <<= 16;
+        // 将上层图形下移，直至碰到地板（次数到达4次），或者上下图形重合
+        for (int i = 0; i < 4; i++) {
+            // 必须用无符号右移>>>
+            top >>>= 4;
+            // 如果有重合部分，则将上层图形上移
+            if ((bottom & top) != 0) {
+                top <<= 4;
+                break;
+            }
+        }
+        // 上层图形除去高于四层的部分后，与下层图形合到一起
+        return bottom | (top & 0xFFFF);
+    }
+
+    /**
+     * 单图形操作.
+     * <p>
+     * 批量计算时请使用查表实现的 {@link OperateTable#apply}。
+     *
+     * @param operate 单图形操作
+     * @param id      图形 id
+     * @return 结果图形 id
+     * @throws IllegalArgumentException 如果操作是堆叠
+     */
+    public static int apply(Operate operate, int id) {
+        return switch (operate) {
+            case LEFT -> cut(id, LEFT);
+            case RIGHT -> cut(id, RIGHT);
+            case TOP_RIGHT -> cut(id, TOP_RIGHT);
+            case BOTTOM_RIGHT -> cut(id, BOTTOM_RIGHT);
+            case BOTTOM_LEFT -> cut(id, BOTTOM_LEFT);
+            case TOP_LEFT -> cut(id, TOP_LEFT);
+            case R90 -> rotate90(id);
+            case R180 -> rotate180(id);
+            case R270 -> rotate270(id);
+            case STACK -> throw new IllegalArgumentException("堆叠不是单图形操作");
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package shapez.calculate;
+
+/**
+ * 接收一对堆叠图形的回调.
+ *
+ * @author MengLeiFudge
+ */
+@FunctionalInterface
+public interface StackPairConsumer {
+    /**
+     * 处理一对堆叠图形.
+     *
+     * @param top    上层图形 id
+     * @param bottom 下层图形 id
+     */
+    void accept(int top, int bottom);
+}
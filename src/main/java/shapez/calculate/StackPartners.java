@@ -0,0 +1,159 @@
+package shapez.calculate;
+
+import java.util.Arrays;
+
+/**
+ * 配方计算中已确定的图形，分别按作为下层、上层图形时的列高度组合分组.
+ * <p>
+ * 与 {@link ProfileBuckets} 不同，图形在确定后才逐个加入，组内按加入顺序排列。
+ * 新确定的图形与所有已确定的图形堆叠时，每组只查一次偏移，并整组跳过上层图形被完全挤出的情况，
+ * 组内每对图形只需一次移位与按位或。
+ * <p>
+ * 每个图形可以附带一个值（如 {@link ParetoRecipes} 的标签序号），遍历堆叠结果时与结果一起返回。
+ * 遍历按分组进行，每组的结果先写入复用的数组，调用者用局部变量保存数组后逐个处理。
+ * 调用者处理结果时通常会调用其他方法，使用回调或逐个结果的游标时，每个结果都要重新读取字段；
+ * 按组写入数组后，内层循环只读取局部变量，且多个调用者之间不存在共用的回调调用点。
+ *
+ * @author MengLeiFudge
+ * @see StackTable
+ */
+final class StackPartners {
+    private final int[][] bottomIds = new int[StackTable.PROFILE_NUM][];
+    private final int[][] bottomValues = new int[StackTable.PROFILE_NUM][];
+    private final int[] bottomSize = new int[StackTable.PROFILE_NUM];
+    private final int[][] topIds = new int[StackTable.PROFILE_NUM][];
+    private final int[][] topValues = new int[StackTable.PROFILE_NUM][];
+    private final int[] topSize = new int[StackTable.PROFILE_NUM];
+    /**
+     * 游标：正在堆叠的图形是否作为上层图形、其 id 与列高度组合.
+     */
+    private boolean asTop;
+    private int self;
+    private int selfProfile;
+    /**
+     * 游标：当前分组，及其中图形附带的值与堆叠结果.
+     */
+    private int group;
+    private int[] values;
+    private int[] results = new int[16];
+
+    /**
+     * 加入一个已确定的图形，附带的值即为图形 id.
+     *
+     * @param id 图形 id
+     */
+    void add(int id) {
+        add(id, id);
+    }
+
+    /**
+     * 加入一个已确定的图形.
+     * <p>
+     * 遍历堆叠结果的过程中不能加入图形。
+     *
+     * @param id    图形 id
+     * @param value 附带的值
+     */
+    void add(int id, int value) {
+        int p = StackTable.bottomProfile(id);
+        int n = bottomSize[p]++;
+        bottomIds[p] = append(bottomIds[p], n, id);
+        bottomValues[p] = append(bottomValues[p], n, value);
+        p = StackTable.topProfile(id);
+        n = topSize[p]++;
+        topIds[p] = append(topIds[p], n, id);
+        topValues[p] = append(topValues[p], n, value);
+    }
+
+    /**
+     * 开始遍历图形作为上层图形，堆叠在每个已确定的图形上的结果，按分组、组内按加入顺序.
+     *
+     * @param top 上层图形 id
+     * @return 第一个分组的结果个数，见 {@link #nextGroup()}
+     */
+    int beginAsTop(int top) {
+        return begin(true, top, StackTable.topProfile(top));
+    }
+
+    /**
+     * 开始遍历图形作为下层图形，与每个已确定的图形堆叠的结果，按分组、组内按加入顺序.
+     *
+     * @param bottom 下层图形 id
+     * @return 第一个分组的结果个数，见 {@link #nextGroup()}
+     */
+    int beginAsBottom(int bottom) {
+        return begin(false, bottom, StackTable.bottomProfile(bottom));
+    }
+
+    private int begin(boolean asTop, int self, int selfProfile) {
+        this.asTop = asTop;
+        this.self = self;
+        this.selfProfile = selfProfile;
+        group = -1;
+        return nextGroup();
+    }
+
+    /**
+     * 移到下一个非空、且上层图形没有被完全挤出的分组，并计算该分组的堆叠结果.
+     * <p>
+     * 结果见 {@link #results()}，对应的已确定图形附带的值见 {@link #values()}。
+     *
+     * @return 该分组的结果个数，没有更多分组时返回 0
+     */
+    int nextGroup() {
+        while (++group < StackTable.PROFILE_NUM) {
+            int size = asTop ? bottomSize[group] : topSize[group];
+            int shift = asTop ? StackTable.shift(selfProfile, group) : StackTable.shift(group, selfProfile);
+            if (size == 0 || shift == StackTable.SHIFT_OUT) {
+                continue;
+            }
+            if (size > results.length) {
+                results = new int[Math.max(size, results.length * 2)];
+            }
+            if (asTop) {
+                int[] ids = bottomIds[group];
+                int part = (self << shift) & 0xFFFF;
+                for (int i = 0; i < size; i++) {
+                    results[i] = ids[i] | part;
+                }
+                values = bottomValues[group];
+            } else {
+                int[] ids = topIds[group];
+                for (int i = 0; i < size; i++) {
+                    results[i] = self | ((ids[i] << shift) & 0xFFFF);
+                }
+                values = topValues[group];
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    /**
+     * 返回当前分组的堆叠结果，只有前 {@link #nextGroup()} 个有效，移到下一个分组后会被覆盖.
+     *
+     * @return 结果图形 id 数组
+     */
+    int[] results() {
+        return results;
+    }
+
+    /**
+     * 返回参与当前分组堆叠的已确定图形附带的值，与 {@link #results()} 一一对应，不能修改.
+     *
+     * @return 附带的值数组
+     */
+    int[] values() {
+        return values;
+    }
+
+    private static int[] append(int[] array, int index, int value) {
+        if (array == null) {
+            array = new int[16];
+        } else if (index == array.length) {
+            array = Arrays.copyOf(array, index * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+}
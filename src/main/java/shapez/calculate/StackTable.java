@@ -0,0 +1,118 @@
+package shapez.calculate;
+
+/**
+ * 堆叠的列高度表.
+ * <p>
+ * 上层图形下落时，只会在某一列（象限）上与下层图形相碰。
+ * 设下层图形第 q 列最高一层为 H(q)，上层图形第 q 列最低一层为 L(q)，
+ * 则上层图形最终所在的层偏移为 max(0, H(q) - L(q) + 1)（只考虑两者均非空的列），最大为 4，即被完全挤出。
+ * <p>
+ * 因此堆叠的偏移只取决于下层图形的“列顶高度”与上层图形的“列底高度”。
+ * 每种高度各有 5 种取值，4 列组合后各有 5^4 = 625 种，
+ * 预先算好所有组合的偏移后，堆叠结果即为 bottom | ((top << 偏移) & 0xFFFF)，
+ * 且偏移为 4 的组合可以整组跳过，因为结果就是下层图形本身。
+ *
+ * @author MengLeiFudge
+ */
+public final class StackTable {
+    private StackTable() {
+    }
+
+    /**
+     * 列高度组合的数目.
+     */
+    static final int PROFILE_NUM = 625;
+    /**
+     * 上层图形被完全挤出时的位移量.
+     */
+    static final int SHIFT_OUT = 16;
+
+    /**
+     * 作为下层图形时的列顶高度组合，第 q 列的值为 H(q) + 1.
+     */
+    private static final short[] BOTTOM_PROFILE = new short[ShapeClosure.ID_NUM];
+    /**
+     * 作为上层图形时的列底高度组合，第 q 列的值为 L(q)，空列为 4.
+     */
+    private static final short[] TOP_PROFILE = new short[ShapeClosure.ID_NUM];
+    /**
+     * 上层图形需要左移的位数，索引为 上层列底高度组合 * 625 + 下层列顶高度组合.
+     */
+    private static final byte[] SHIFT = new byte[PROFILE_NUM * PROFILE_NUM];
+
+    static {
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            int bottomProfile = 0;
+            int topProfile = 0;
+            for (int q = 3; q >= 0; q--) {
+                int high = -1;
+                int low = 4;
+                for (int layer = 0; layer < 4; layer++) {
+                    if ((id & (1 << (layer * 4 + q))) != 0) {
+                        high = layer;
+                        low = Math.min(low, layer);
+                    }
+                }
+                bottomProfile = bottomProfile * 5 + high + 1;
+                topProfile = topProfile * 5 + low;
+            }
+            BOTTOM_PROFILE[id] = (short) bottomProfile;
+            TOP_PROFILE[id] = (short) topProfile;
+        }
+        for (int top = 0; top < PROFILE_NUM; top++) {
+            for (int bottom = 0; bottom < PROFILE_NUM; bottom++) {
+                int offset = 0;
+                for (int q = 0, t = top, b = bottom; q < 4; q++, t /= 5, b /= 5) {
+                    int low = t % 5;
+                    int high = b % 5 - 1;
+                    if (low < 4 && high >= 0) {
+                        offset = Math.max(offset, high - low + 1);
+                    }
+                }
+                SHIFT[top * PROFILE_NUM + bottom] = (byte) (offset * 4);
+            }
+        }
+    }
+
+    /**
+     * 返回上层图形堆叠在下层图形上的结果，与 {@link SimpleShape} 的堆叠结果一致.
+     *
+     * @param top    上层图形 id
+     * @param bottom 下层图形 id
+     * @return 堆叠后的图形 id
+     */
+    public static int stack(int top, int bottom) {
+        return bottom | ((top << SHIFT[TOP_PROFILE[top] * PROFILE_NUM + BOTTOM_PROFILE[bottom]]) & 0xFFFF);
+    }
+
+    /**
+     * 返回图形作为下层图形时的列顶高度组合.
+     *
+     * @param id 图形 id
+     * @return 列顶高度组合，范围为 0 - 624
+     */
+    static int bottomProfile(int id) {
+        return BOTTOM_PROFILE[id];
+    }
+
+    /**
+     * 返回图形作为上层图形时的列底高度组合.
+     *
+     * @param id 图形 id
+     * @return 列底高度组合，范围为 0 - 624
+     */
+    static int topProfile(int id) {
+        return TOP_PROFILE[id];
+    }
+
+    /**
+     * 返回某种列高度组合的上层图形堆叠在某种列高度组合的下层图形上时，上层图形需要左移的位数.
+     *
+     * @param topProfile    上层图形的列底高度组合
+     * @param bottomProfile 下层图形的列顶高度组合
+     * @return 左移位数，为 {@link #SHIFT_OUT} 时上层图形被完全挤出
+     */
+    static int shift(int topProfile, int bottomProfile) {
+        return SHIFT[topProfile * PROFILE_NUM + bottomProfile];
+    }
+}
@@ -0,0 +1,28 @@
+package shapez.calculate;
+
+/**
+ * 单图形操作，即图形 id 上的纯函数.
+ * <p>
+ * 新的建筑或规则实现该接口后，由 {@link CompiledOperations} 对所有 65536 个 id 预先算出结果表，
+ * 计算过程中只读取结果表，与内置的切割、旋转（见 {@link OperateTable}）一样快。
+ * 因此 {@link #apply} 只会在编译时被调用，不必追求速度，但必须对同一输入总是返回同一结果。
+ *
+ * @author MengLeiFudge
+ * @see OperationProvider
+ */
+public interface UnaryOperation {
+    /**
+     * 返回操作名称，同一组操作中不能重复.
+     *
+     * @return 操作名称
+     */
+    String getName();
+
+    /**
+     * 返回操作的结果.
+     *
+     * @param id 图形 id，范围为 0x0000 - 0xffff
+     * @return 结果图形 id，范围为 0x0000 - 0xffff，为 0 表示没有结果
+     */
+    int apply(int id);
+}
@@ -1,11 +1,14 @@
 package spztool;
 
 import shapez.calculate.GetAllShapes;
+import shapez.calculate.RuleProfile;
 import shapez.check_floating.Check;
 import shapez.puzzle.GetAllPuzzles;
 import shapez.puzzle.ShowOnePuzzle;
 import shapez.puzzle.SolvePuzzle;
 
+import java.util.List;
+
 /**
  * 这是一个 Shapez 的处理程序.
  * <p>
@@ -14,7 +17,13 @@ import shapez.puzzle.SolvePuzzle;
  * @author MengLeiFudge
  */
 public class Main {
+    /**
+     * 程序入口.
+     *
+     * @param args 传入 --resume 时，计算可合成图形会从上次中断的检查点继续
+     */
     public static void main(String[] args) {
+        boolean resume = List.of(args).contains("--resume");
         while (true) {
             System.out.println("※ 该项目仅供学习研究之用 ※");
             System.out.println("选择功能：");
@@ -26,7 +35,7 @@ public class Main {
             System.out.println("6.输出指定谜题的解");
             System.out.println("0.结束");
             switch (SettingsAndUtils.sc.nextLine()) {
-                case "1" -> new GetAllShapes().process();
+                case "1" -> new GetAllShapes(RuleProfile.ALL, resume).process();
                 case "2" -> new Check().process();
                 case "3" -> new ShowOnePuzzle().process();
                 case "4" -> new GetAllPuzzles().process(true);
@@ -0,0 +1,58 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 反向求解的结果与 {@link OperationClosure} 的可合成图形逐 id 相同，记录的最后一步能得到目标图形.
+ *
+ * @author MengLeiFudge
+ */
+class BackwardSolverTest {
+    private static void assertSameAsClosure(RuleProfile profile) {
+        Operate[] operates = profile.getOperates();
+        OperationClosure closure = new OperationClosure(CompiledOperations.of(operates));
+        closure.calculate(4);
+        ShapeSet shapes = closure.getShapes();
+        BackwardSolver solver = new BackwardSolver(operates);
+        int mismatches = 0;
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            if (solver.solve(id) != shapes.contains(id)) {
+                mismatches++;
+            }
+        }
+        assertEquals(0, mismatches, profile.getName() + " 中能否合成与严格闭包不同的图形数");
+        for (int id = shapes.nextSetBit(1); id != -1; id = shapes.nextSetBit(id + 1)) {
+            String name = profile.getName() + " 图形 " + id;
+            if (solver.isBase(id)) {
+                assertTrue(id <= 0xF, name + " 不是单层图形");
+                assertNull(solver.getOperate(id), name + " 的操作");
+                continue;
+            }
+            Operate operate = solver.getOperate(id);
+            int parent1 = solver.getParent1(id);
+            int parent2 = solver.getParent2(id);
+            assertTrue(shapes.contains(parent1), name + " 的图形1 " + parent1 + " 不可合成");
+            if (operate == Operate.STACK) {
+                assertTrue(shapes.contains(parent2), name + " 的图形2 " + parent2 + " 不可合成");
+                assertEquals(id, StackTable.stack(parent1, parent2), name + " 的堆叠结果");
+            } else {
+                assertEquals(0, parent2, name + " 的图形2");
+                assertEquals(id, OperateTable.apply(operate, parent1), name + " 的 " + operate + " 结果");
+            }
+        }
+    }
+
+    @Test
+    void matchesClosureForAll() {
+        assertSameAsClosure(RuleProfile.ALL);
+    }
+
+    @Test
+    void matchesClosureFor2c1r() {
+        assertSameAsClosure(RuleProfile.TWO_CUT_ONE_ROTATE);
+    }
+}
@@ -0,0 +1,266 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link OperationProvider} 提供的操作编译后与直接调用的结果相同，与内置操作一样参与逐层计算，并计入规则指纹.
+ *
+ * @author MengLeiFudge
+ */
+class CompiledOperationsTest {
+    /**
+     * 每层的四个角左右翻转.
+     */
+    private record Mirror(String name) implements UnaryOperation {
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int apply(int id) {
+            int result = 0;
+            for (int layer = 0; layer < 4; layer++) {
+                int x = (id >>> (layer * 4)) & 0xF;
+                result |= (Integer.reverse(x) >>> 28) << (layer * 4);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 把图形1原样放在图形2的上方，不会下落，按两者的层数分组，总层数超过 maxLayer 时整组跳过.
+     */
+    private record Overlay(String name, int maxLayer) implements BinaryOperation {
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int apply(int first, int second) {
+            int parameter = parameter(firstProfile(first), secondProfile(second));
+            return parameter == SKIP ? 0 : apply(first, second, parameter);
+        }
+
+        @Override
+        public int getFirstProfileNum() {
+            return 5;
+        }
+
+        @Override
+        public int firstProfile(int id) {
+            return ShapeIndex.layerNum(id);
+        }
+
+        @Override
+        public int getSecondProfileNum() {
+            return 5;
+        }
+
+        @Override
+        public int secondProfile(int id) {
+            return ShapeIndex.layerNum(id);
+        }
+
+        @Override
+        public int parameter(int firstProfile, int secondProfile) {
+            if (firstProfile == 0 || secondProfile == 0 || firstProfile + secondProfile > maxLayer) {
+                return SKIP;
+            }
+            return secondProfile * 4;
+        }
+
+        @Override
+        public int apply(int first, int second, int parameter) {
+            return second | ((first << parameter) & 0xFFFF);
+        }
+    }
+
+    private record Provider(List<UnaryOperation> unary, List<BinaryOperation> binary) implements OperationProvider {
+        @Override
+        public List<UnaryOperation> getUnaryOperations() {
+            return unary;
+        }
+
+        @Override
+        public List<BinaryOperation> getBinaryOperations() {
+            return binary;
+        }
+    }
+
+    private static final Mirror MIRROR = new Mirror("MIRROR");
+    private static final Overlay OVERLAY = new Overlay("OVERLAY", 4);
+    private static final Provider TOY = new Provider(List.of(MIRROR), List.of(OVERLAY));
+
+    private static int indexOf(CompiledOperations operations, String name, boolean binary) {
+        int num = binary ? operations.getBinaryNum() : operations.getUnaryNum();
+        for (int i = 0; i < num; i++) {
+            if (name.equals(binary ? operations.getBinaryName(i) : operations.getUnaryName(i))) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("没有操作：" + name);
+    }
+
+    @Test
+    void providerOperationsAreCompiled() {
+        Operate[] operates = {Operate.R90, Operate.STACK};
+        CompiledOperations operations = CompiledOperations.load(operates, List.of(TOY));
+        assertArrayEquals(operates, operations.getOperates(), "内置操作");
+        assertTrue(operations.hasExtensions(), "应有额外操作");
+        int mirror = indexOf(operations, "MIRROR", false);
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            assertEquals(MIRROR.apply(id), operations.applyUnary(mirror, id), "图形 " + id + " 的翻转结果");
+        }
+        int overlay = indexOf(operations, "OVERLAY", true);
+        int stack = indexOf(operations, "STACK", true);
+        Random random = new Random(21);
+        int skipped = 0;
+        for (int i = 0; i < 200_000; i++) {
+            int first = random.nextInt(ShapeClosure.ID_NUM);
+            int second = random.nextInt(ShapeClosure.ID_NUM);
+            int result = operations.applyBinary(overlay, first, second);
+            assertEquals(OVERLAY.apply(first, second), result, first + " 叠放在 " + second + " 上");
+            skipped += result == 0 ? 1 : 0;
+            // 上层图形被完全挤出时整组跳过，结果为 0，堆叠的结果即为下层图形
+            int stacked = operations.applyBinary(stack, first, second);
+            assertEquals(StackTable.stack(first, second), stacked == 0 ? second : stacked, first + " 堆叠在 " + second + " 上");
+        }
+        assertTrue(skipped > 0, "没有整组跳过的分组对");
+        assertEquals(0, operations.applyBinary(overlay, 0x1111, 0x0001), "总层数超过 4 层时应跳过");
+        assertEquals(0x0021, operations.applyBinary(overlay, 0x0002, 0x0001), "两个单层图形的叠放结果");
+    }
+
+    @Test
+    void duplicateNamesAreRejected() {
+        Operate[] operates = {Operate.R90, Operate.STACK};
+        Provider builtinName = new Provider(List.of(new Mirror("R90")), List.of());
+        Provider binaryName = new Provider(List.of(), List.of(new Overlay("MIRROR", 4)));
+        assertThrows(IllegalArgumentException.class,
+                () -> CompiledOperations.load(operates, List.of(builtinName)), "与内置操作重名");
+        assertThrows(IllegalArgumentException.class,
+                () -> CompiledOperations.load(operates, List.of(TOY, TOY)), "两个服务提供同名操作");
+        assertThrows(IllegalArgumentException.class,
+                () -> CompiledOperations.load(operates, List.of(TOY, binaryName)), "单图形操作与双图形操作重名");
+    }
+
+    /**
+     * 逐层计算的深度与直接调用各个操作、枚举所有图形对的结果相同.
+     */
+    @Test
+    void closureTreatsExtensionsLikeBuiltins() {
+        int depthLimit = 3;
+        OperationClosure closure = new OperationClosure(CompiledOperations.load(new Operate[]{Operate.R90}, List.of(TOY)));
+        closure.calculate(1, depthLimit);
+        int[] depths = new int[ShapeClosure.ID_NUM];
+        List<Integer> known = new ArrayList<>();
+        for (int id = 1; id <= 0xF; id++) {
+            depths[id] = 1;
+            known.add(id);
+        }
+        for (int depth = 2; depth <= depthLimit; depth++) {
+            List<Integer> found = new ArrayList<>();
+            for (int p : known) {
+                for (int result : new int[]{OperateTable.apply(Operate.R90, p), MIRROR.apply(p)}) {
+                    if (depths[p] == depth - 1 && result != 0 && depths[result] == 0) {
+                        depths[result] = depth;
+                        found.add(result);
+                    }
+                }
+                for (int q : known) {
+                    int result = OVERLAY.apply(p, q);
+                    if ((depths[p] == depth - 1 || depths[q] == depth - 1) && result != 0 && depths[result] == 0) {
+                        depths[result] = depth;
+                        found.add(result);
+                    }
+                }
+            }
+            known.addAll(found);
+        }
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            assertEquals(depths[id], closure.getDepth(id), "图形 " + id + " 的深度");
+        }
+    }
+
+    @Test
+    void fingerprintCoversExtensions() {
+        Operate[] operates = Operate.values2c1r();
+        long builtin = RuleFingerprint.of(operates);
+        assertEquals(builtin, RuleFingerprint.of(CompiledOperations.load(operates, List.of())), "没有额外操作时指纹应不变");
+        assertEquals(builtin, RuleFingerprint.of(CompiledOperations.of(operates)), "没有额外操作时指纹应不变");
+        long toy = RuleFingerprint.of(CompiledOperations.load(operates, List.of(TOY)));
+        assertNotEquals(builtin, toy, "额外操作没有计入指纹");
+        Provider mirror = new Provider(List.of(MIRROR), List.of());
+        Provider overlay = new Provider(List.of(), List.of(OVERLAY));
+        assertEquals(toy, RuleFingerprint.of(CompiledOperations.load(operates, List.of(overlay, mirror))),
+                "指纹与服务的顺序有关");
+        Provider renamed = new Provider(List.of(new Mirror("FLIP")), List.of(OVERLAY));
+        Provider otherTable = new Provider(List.of(new UnaryOperation() {
+            @Override
+            public String getName() {
+                return "MIRROR";
+            }
+
+            @Override
+            public int apply(int id) {
+                return MIRROR.apply(id) & 0x0FFF;
+            }
+        }), List.of(OVERLAY));
+        Provider otherParameters = new Provider(List.of(MIRROR), List.of(new Overlay("OVERLAY", 3)));
+        for (var provider : List.of(renamed, otherTable, otherParameters)) {
+            assertNotEquals(toy, RuleFingerprint.of(CompiledOperations.load(operates, List.of(provider))),
+                    "额外操作改变后指纹应改变");
+        }
+    }
+
+    /**
+     * 从使用了额外操作、或只使用内置操作的图形数据库增量计算，与直接计算的结果相同.
+     */
+    @Test
+    void extendFromDatabaseWithExtensions() throws IOException {
+        Operate[] base = {Operate.R90, Operate.STACK};
+        Operate[] target = {Operate.R90, Operate.LEFT, Operate.STACK};
+        CompiledOperations baseOperations = CompiledOperations.load(base, List.of(TOY));
+        CompiledOperations targetOperations = CompiledOperations.load(target, List.of(TOY));
+        OperationClosure expected = new OperationClosure(targetOperations);
+        expected.calculate(4);
+        OperationClosure withToy = new OperationClosure(baseOperations);
+        withToy.calculate(4);
+        OperationClosure builtin = new OperationClosure(CompiledOperations.of(base));
+        builtin.calculate(4);
+        File file = Files.createTempFile("compiled-operations", ".bin").toFile();
+        try {
+            ShapeDatabaseFile.write(file, baseOperations, withToy.getShapes(), null, withToy.getDepths());
+            ShapeDatabaseFile database = ShapeDatabaseFile.open(file, RuleFingerprint.of(baseOperations));
+            assertArrayEquals(expected.getDepths(), OperationClosure.extend(database, targetOperations, 4).getDepths(),
+                    "从使用了额外操作的数据库增量计算");
+            ShapeDatabaseFile.write(file, base, builtin.getShapes(), null, builtin.getDepths());
+            database = ShapeDatabaseFile.open(file, RuleFingerprint.of(base));
+            assertArrayEquals(expected.getDepths(), OperationClosure.extend(database, targetOperations, 4).getDepths(),
+                    "从只使用内置操作的数据库增量计算");
+            // 数据库使用的额外操作与当前的不同
+            CompiledOperations other = CompiledOperations.load(target,
+                    List.of(new Provider(List.of(MIRROR), List.of(new Overlay("OVERLAY", 3)))));
+            ShapeDatabaseFile.write(file, baseOperations, withToy.getShapes(), null, withToy.getDepths());
+            ShapeDatabaseFile mismatched = ShapeDatabaseFile.open(file);
+            assertThrows(IllegalArgumentException.class, () -> OperationClosure.extend(mismatched, other, 4),
+                    "额外操作不同时应报错");
+        } finally {
+            file.delete();
+        }
+    }
+}
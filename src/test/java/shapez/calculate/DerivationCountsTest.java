@@ -0,0 +1,117 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 最短合成方法的数目与正向枚举的结果相同，使用保存的深度与重新计算深度的结果相同.
+ *
+ * @author MengLeiFudge
+ */
+class DerivationCountsTest {
+    /**
+     * 正向枚举的深度上限，更深的图形枚举的堆叠数目太多.
+     */
+    private static final int MAX_DEPTH = 4;
+
+    /**
+     * 从单层图形开始正向枚举：深度为 h 的图形，是所有来源图形深度都小于 h、且至少一个为 h - 1 的操作
+     * 第一次得到的图形，其数目为这些操作的来源图形数目之积的和.
+     */
+    private static void assertSameAsEnumeration(Operate[] operates) {
+        DerivationCounts counts = DerivationCounts.calculate(operates, 4);
+        int[] depths = new int[ShapeClosure.ID_NUM];
+        BigInteger[] expected = new BigInteger[ShapeClosure.ID_NUM];
+        List<Integer> previous = new ArrayList<>();
+        List<Integer> below = new ArrayList<>();
+        for (int id = 1; id <= 0xF; id++) {
+            depths[id] = 1;
+            expected[id] = BigInteger.ONE;
+            previous.add(id);
+        }
+        for (int depth = 2; depth <= MAX_DEPTH; depth++) {
+            below.addAll(previous);
+            BigInteger[] sums = new BigInteger[ShapeClosure.ID_NUM];
+            for (int p : previous) {
+                for (var x : operates) {
+                    if (x != Operate.STACK) {
+                        add(sums, depths, OperateTable.apply(x, p), expected[p]);
+                        continue;
+                    }
+                    // 深度同为 h - 1 的两个图形，两种堆叠顺序分别在各自作为上层图形时计算
+                    for (int q : below) {
+                        BigInteger product = expected[p].multiply(expected[q]);
+                        add(sums, depths, StackTable.stack(p, q), product);
+                        if (depths[q] < depth - 1) {
+                            add(sums, depths, StackTable.stack(q, p), product);
+                        }
+                    }
+                }
+            }
+            previous.clear();
+            for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+                if (sums[id] != null) {
+                    depths[id] = depth;
+                    expected[id] = sums[id];
+                    previous.add(id);
+                }
+            }
+        }
+        String name = List.of(operates).toString();
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            if (depths[id] != 0) {
+                assertEquals(depths[id], counts.getDepth(id), name + " 图形 " + id + " 的深度");
+                assertEquals(expected[id], counts.getCount(id), name + " 图形 " + id + " 的数目");
+            } else {
+                assertTrue(counts.getDepth(id) == 0 || counts.getDepth(id) > MAX_DEPTH,
+                        name + " 图形 " + id + " 的深度应大于 " + MAX_DEPTH);
+            }
+        }
+    }
+
+    private static void add(BigInteger[] sums, int[] depths, int id, BigInteger count) {
+        if (id != 0 && depths[id] == 0) {
+            sums[id] = sums[id] == null ? count : sums[id].add(count);
+        }
+    }
+
+    @Test
+    void matchesEnumerationForAll() {
+        assertSameAsEnumeration(Operate.values());
+    }
+
+    @Test
+    void matchesEnumerationFor2c1r() {
+        assertSameAsEnumeration(Operate.values2c1r());
+    }
+
+    @Test
+    void storedDepthsGiveSameCounts() throws IOException {
+        Operate[] operates = Operate.values2c1r();
+        OperationClosure closure = new OperationClosure(CompiledOperations.of(operates));
+        closure.calculate(4);
+        File file = Files.createTempFile("derivation-counts", ".bin").toFile();
+        try {
+            ShapeDatabaseFile.write(file, operates, closure.getShapes(), null, closure.getDepths());
+            ShapeDatabaseFile database = ShapeDatabaseFile.open(file);
+            DerivationCounts expected = DerivationCounts.calculate(operates, 4);
+            DerivationCounts actual = DerivationCounts.calculate(database, 4);
+            assertEquals(expected.getFingerprint(), actual.getFingerprint(), "规则指纹不同");
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                assertEquals(expected.getDepth(id), actual.getDepth(id), "图形 " + id + " 的深度");
+                assertEquals(expected.getCount(id), actual.getCount(id), "图形 " + id + " 的数目");
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 原版规格下，按位计算的操作与查表的结果相同，通用流程与 {@link OperationClosure} 的深度相同.
+ *
+ * @author MengLeiFudge
+ */
+class GeneralClosureTest {
+    private static final int DEPTH_LIMIT = 4;
+
+    @Test
+    void standardGeometryMatchesTables() {
+        ShapeGeometry geometry = ShapeGeometry.STANDARD;
+        for (var x : Operate.values()) {
+            if (x == Operate.STACK) {
+                continue;
+            }
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                assertEquals(OperateTable.apply(x, id), (int) geometry.apply(x, id), x + " " + id);
+            }
+        }
+        Random random = new Random(20240501);
+        for (int i = 0; i < 1_000_000; i++) {
+            int top = random.nextInt(ShapeClosure.ID_NUM);
+            int bottom = random.nextInt(ShapeClosure.ID_NUM);
+            assertEquals(StackTable.stack(top, bottom), (int) geometry.stack(top, bottom), top + " 堆叠在 " + bottom + " 上");
+        }
+    }
+
+    private static void assertSparseSame(Operate[] operates) {
+        OperationClosure dense = new OperationClosure(CompiledOperations.of(operates));
+        dense.calculate(1, DEPTH_LIMIT);
+        GeneralClosure sparse = new GeneralClosure(ShapeGeometry.STANDARD, operates);
+        sparse.calculateSparse(DEPTH_LIMIT);
+        assertEquals(dense.getShapes().cardinality(), sparse.size());
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            assertEquals(dense.getDepth(id), sparse.getDepth(id), "图形 " + id + " 的深度");
+        }
+    }
+
+    @Test
+    void sparseMatchesDenseForAll() {
+        assertSparseSame(Operate.values());
+    }
+
+    @Test
+    void sparseMatchesDenseFor2c1r() {
+        assertSparseSame(Operate.values2c1r());
+    }
+}
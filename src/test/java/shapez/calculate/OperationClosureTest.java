@@ -0,0 +1,83 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 增量计算的深度与直接计算的深度逐 id 相同.
+ *
+ * @author MengLeiFudge
+ */
+class OperationClosureTest {
+    private static OperationClosure calculate(Operate[] operates) {
+        OperationClosure closure = new OperationClosure(CompiledOperations.of(operates));
+        closure.calculate(4);
+        return closure;
+    }
+
+    private static void assertSameDepths(OperationClosure expected, OperationClosure actual, String name) {
+        assertEquals(expected.getShapes().cardinality(), actual.getShapes().cardinality(), name);
+        assertEquals(expected.getMaxDepth(), actual.getMaxDepth(), name);
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            assertEquals(expected.getDepth(id), actual.getDepth(id), name + " 图形 " + id + " 的深度");
+        }
+    }
+
+    private static void assertExtendSame(Operate[] base, Operate[] target) throws IOException {
+        String name = Arrays.toString(base) + " -> " + Arrays.toString(target);
+        OperationClosure before = calculate(base);
+        OperationClosure expected = calculate(target);
+        assertSameDepths(expected, OperationClosure.extend(before, CompiledOperations.of(target), 4), name);
+        // 从保存的图形数据库增量计算
+        File file = Files.createTempFile("operation-closure", ".bin").toFile();
+        try {
+            ShapeDatabaseFile.write(file, base, before.getShapes(), null, before.getDepths());
+            ShapeDatabaseFile database = ShapeDatabaseFile.open(file);
+            assertSameDepths(expected, OperationClosure.extend(database, CompiledOperations.of(target), 4), name);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Operate[] with(Operate[] operates, Operate... added) {
+        List<Operate> list = new ArrayList<>(List.of(operates));
+        list.addAll(List.of(added));
+        return list.toArray(new Operate[0]);
+    }
+
+    @Test
+    void addQuadCutsTo2c1r() throws IOException {
+        assertExtendSame(Operate.values2c1r(), with(Operate.values2c1r(),
+                Operate.TOP_RIGHT, Operate.BOTTOM_RIGHT, Operate.BOTTOM_LEFT, Operate.TOP_LEFT));
+    }
+
+    @Test
+    void add2c1rToAll() throws IOException {
+        assertExtendSame(Operate.values2c1r(), Operate.values());
+    }
+
+    @Test
+    void addCutsToRotateStack() throws IOException {
+        assertExtendSame(new Operate[]{Operate.R90, Operate.STACK}, with(new Operate[]{Operate.R90, Operate.STACK},
+                Operate.LEFT, Operate.RIGHT));
+    }
+
+    @Test
+    void addStackToUnary() throws IOException {
+        Operate[] unary = Arrays.stream(Operate.values()).filter(x -> x != Operate.STACK).toArray(Operate[]::new);
+        assertExtendSame(unary, Operate.values());
+    }
+
+    @Test
+    void addNothing() throws IOException {
+        assertExtendSame(Operate.values(), Operate.values());
+    }
+}
@@ -0,0 +1,85 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 枚举到的来源图形都能得到结果图形，且与逐个尝试所有图形的结果数目相同，即没有遗漏.
+ *
+ * @author MengLeiFudge
+ */
+class PreimagesTest {
+    @Test
+    void unaryPreimagesAreExact() {
+        for (var x : Operate.values()) {
+            if (x == Operate.STACK) {
+                continue;
+            }
+            int expected = 0;
+            for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+                if (SimpleShapes.apply(x, id) != 0) {
+                    expected++;
+                }
+            }
+            int[] num = new int[1];
+            for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+                int target = id;
+                Set<Integer> seen = new HashSet<>();
+                Preimages.forEach(x, target, source -> {
+                    assertEquals(target, SimpleShapes.apply(x, source), x + " " + source);
+                    assertTrue(seen.add(source), x + " 重复的来源图形 " + source);
+                    num[0]++;
+                });
+            }
+            assertEquals(expected, num[0], x.name());
+        }
+    }
+
+    /**
+     * 只使用不超过 3 层的图形，逐个尝试所有图形对.
+     */
+    @Test
+    void stackPreimagesAreExactOnSmallShapes() {
+        ShapeSet shapes = new ShapeSet();
+        for (int id = 1; id < 0x1000; id++) {
+            shapes.add(id);
+        }
+        int expected = 0;
+        ShapeSet targets = new ShapeSet();
+        for (int top = 1; top < 0x1000; top++) {
+            for (int bottom = 1; bottom < 0x1000; bottom++) {
+                int target = SimpleShapes.stack(top, bottom);
+                if (target != bottom) {
+                    expected++;
+                    targets.add(target);
+                }
+            }
+        }
+        int[] num = new int[1];
+        targets.forEach(target -> {
+            Set<Long> seen = new HashSet<>();
+            Preimages.forEachStack(target, shapes, (top, bottom) -> {
+                assertEquals(target, SimpleShapes.stack(top, bottom), top + " 堆叠在 " + bottom + " 上");
+                assertTrue(seen.add((long) top << 16 | bottom), "重复的图形对 " + top + "、" + bottom);
+                num[0]++;
+            });
+        });
+        assertEquals(expected, num[0]);
+    }
+
+    @Test
+    void stackPreimagesMapBack() {
+        for (int id = 1; id < ShapeClosure.ID_NUM; id += 31) {
+            int target = id;
+            Preimages.forEachStack(target, (top, bottom) -> {
+                assertEquals(target, SimpleShapes.stack(top, bottom), top + " 堆叠在 " + bottom + " 上");
+                assertTrue(bottom != target);
+            });
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+import shapez.base.Building;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 生产比例的建筑总数、基础图形总用量与最优配方的总操作数、总材料数相同，查询与逐个判断的结果相同.
+ *
+ * @author MengLeiFudge
+ */
+class ProductionRatiosTest {
+    private static void assertSumsMatchRecipes(RecipeDatabase.Priority priority) {
+        RecipeDatabase db = RecipeDatabase.build(Operate.values(), priority);
+        ProductionRatios ratios = ProductionRatios.of(db);
+        for (int id = 1; id < ShapeClosure.ID_NUM; id++) {
+            if (!db.contains(id)) {
+                continue;
+            }
+            String name = priority + " 图形 " + id;
+            assertEquals(db.getOperations(id), ratios.getMachineSum(id), name + " 的建筑处理次数之和");
+            assertEquals(db.getMaterials(id), ratios.getBaseRateSum(id), name + " 的基础图形用量之和");
+        }
+        assertQueriesMatchLoop(ratios);
+    }
+
+    /**
+     * 逐个图形读取每种建筑的处理次数，与查询的结果比较.
+     */
+    private static void assertQueriesMatchLoop(ProductionRatios ratios) {
+        Building.BuildingType[] types = ProductionRatios.getMachineTypes();
+        for (var type : Building.BuildingType.values()) {
+            ShapeQuery query = ratios.without(type);
+            int index = List.of(types).indexOf(type);
+            int count = 0;
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                boolean expected = id != 0 && ratios.contains(id) && (index < 0 || ratios.getMachines(id)[index] == 0);
+                assertEquals(expected, query.test(id), "不需要 " + type + " 的图形 " + id);
+                count += expected ? 1 : 0;
+            }
+            assertEquals(count, query.count(), "不需要 " + type + " 的图形数");
+        }
+        for (int num : new int[]{0, 1, 3, 10, 30, 1000}) {
+            ShapeQuery query = ratios.machineSumAtMost(num);
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                int sum = 0;
+                if (id != 0 && ratios.contains(id)) {
+                    for (int machines : ratios.getMachines(id)) {
+                        sum += machines;
+                    }
+                }
+                boolean expected = id != 0 && ratios.contains(id) && sum <= num;
+                assertEquals(expected, query.test(id), "处理次数之和不超过 " + num + " 的图形 " + id);
+            }
+        }
+    }
+
+    @Test
+    void sumsMatchRecipesByMaterials() {
+        assertSumsMatchRecipes(RecipeDatabase.Priority.MATERIALS);
+    }
+
+    @Test
+    void sumsMatchRecipesByOperations() {
+        assertSumsMatchRecipes(RecipeDatabase.Priority.OPERATIONS);
+    }
+}
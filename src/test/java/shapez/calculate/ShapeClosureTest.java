@@ -0,0 +1,30 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * 并行计算与单线程计算的步骤表必须逐 id 相同，见 {@link ParallelExpander}.
+ *
+ * @author MengLeiFudge
+ */
+class ShapeClosureTest {
+    private static void assertParallelSame(RuleProfile profile) {
+        ShapeClosure sequential = new ShapeClosure(profile, 1);
+        sequential.calculate();
+        ShapeClosure parallel = new ShapeClosure(profile, 4);
+        parallel.calculate();
+        assertArrayEquals(sequential.getSteps(), parallel.getSteps(), profile.getName());
+    }
+
+    @Test
+    void parallelMatchesSequentialForAll() {
+        assertParallelSame(RuleProfile.ALL);
+    }
+
+    @Test
+    void parallelMatchesSequentialFor2c1r() {
+        assertParallelSame(RuleProfile.TWO_CUT_ONE_ROTATE);
+    }
+}
@@ -0,0 +1,160 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 图形数据库文件写入后能够原样读回，文件头不符的文件在映射前就被拒绝.
+ *
+ * @author MengLeiFudge
+ */
+class ShapeDatabaseFileTest {
+    private static final Operate[] OPERATES = {Operate.R90, Operate.STACK};
+
+    private static int[] randomBytes(long seed) {
+        Random random = new Random(seed);
+        int[] values = new int[ShapeClosure.ID_NUM];
+        Arrays.setAll(values, i -> random.nextInt(0x100));
+        return values;
+    }
+
+    private static File tempFile() throws IOException {
+        return Files.createTempFile("shape-database", ".bin").toFile();
+    }
+
+    private static void assertSameRecipes(RecipeDatabase expected, RecipeDatabase actual, ShapeDatabaseFile database) {
+        var priority = expected.getPriority();
+        assertEquals(priority, actual.getPriority());
+        for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+            String name = priority + " 图形 " + id;
+            assertEquals(expected.contains(id), actual.contains(id), name + " 是否可合成");
+            assertEquals(expected.isBase(id), actual.isBase(id), name + " 是否为基础图形");
+            assertEquals(expected.getMaterials(id), actual.getMaterials(id), name + " 的材料数");
+            assertEquals(expected.getOperations(id), actual.getOperations(id), name + " 的操作数");
+            assertEquals(expected.getOperate(id), actual.getOperate(id), name + " 的操作");
+            assertEquals(expected.getParent1(id), actual.getParent1(id), name + " 的图形1");
+            assertEquals(expected.getParent2(id), actual.getParent2(id), name + " 的图形2");
+            assertEquals(expected.getOperate(id), database.getOperate(priority, id), name + " 直接读取的操作");
+            assertEquals(expected.getParent1(id), database.getParent1(priority, id), name + " 直接读取的图形1");
+            assertEquals(expected.getParent2(id), database.getParent2(priority, id), name + " 直接读取的图形2");
+        }
+    }
+
+    @Test
+    void writeThenOpenRestoresEverySection() throws IOException {
+        RecipeDatabase materials = RecipeDatabase.build(OPERATES, RecipeDatabase.Priority.MATERIALS);
+        RecipeDatabase operations = RecipeDatabase.build(OPERATES, RecipeDatabase.Priority.OPERATIONS);
+        ShapeSet shapes = materials.getShapes();
+        int[] steps = randomBytes(1);
+        int[] depths = randomBytes(2);
+        File file = tempFile();
+        try {
+            ShapeDatabaseFile.write(file, OPERATES, shapes, steps, depths, operations, materials);
+            assertFalse(new File(file.getPath() + ".tmp").exists(), "临时文件没有被替换");
+            ShapeDatabaseFile database = ShapeDatabaseFile.open(file, RuleFingerprint.of(OPERATES));
+            assertArrayEquals(OPERATES, database.getOperates(), "操作不同");
+            assertEquals(RuleFingerprint.of(OPERATES), database.getFingerprint(), "规则指纹不同");
+            assertArrayEquals(shapes.toArray(), database.getShapes().toArray(), "可合成图形不同");
+            assertTrue(database.hasSteps() && database.hasDepths(), "缺少步骤数或深度");
+            for (int id = 0; id < ShapeClosure.ID_NUM; id++) {
+                assertEquals(shapes.contains(id), database.contains(id), "图形 " + id + " 是否可合成");
+                assertEquals(steps[id], database.getStep(id), "图形 " + id + " 的步骤数");
+                assertEquals(depths[id], database.getDepth(id), "图形 " + id + " 的深度");
+            }
+            for (var db : new RecipeDatabase[]{materials, operations}) {
+                assertTrue(database.hasRecipes(db.getPriority()), "缺少配方：" + db.getPriority());
+                assertSameRecipes(db, database.getRecipes(db.getPriority()), database);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void missingSectionsAreReported() throws IOException {
+        RecipeDatabase materials = RecipeDatabase.build(OPERATES, RecipeDatabase.Priority.MATERIALS);
+        File file = tempFile();
+        try {
+            ShapeDatabaseFile.write(file, OPERATES, materials.getShapes(), null, null, materials);
+            ShapeDatabaseFile database = ShapeDatabaseFile.open(file);
+            assertFalse(database.hasSteps(), "不应有步骤数");
+            assertFalse(database.hasDepths(), "不应有深度");
+            assertThrows(IllegalStateException.class, () -> database.getStep(1), "读取不存在的步骤数");
+            assertThrows(IllegalStateException.class, () -> database.getDepth(1), "读取不存在的深度");
+            assertFalse(database.hasRecipes(RecipeDatabase.Priority.OPERATIONS), "不应有操作数优先的配方");
+            assertThrows(IllegalStateException.class,
+                    () -> database.getRecipes(RecipeDatabase.Priority.OPERATIONS), "读取不存在的配方");
+            assertSameRecipes(materials, database.getRecipes(RecipeDatabase.Priority.MATERIALS), database);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void writeRejectsInvalidInput() throws IOException {
+        RecipeDatabase materials = RecipeDatabase.build(OPERATES, RecipeDatabase.Priority.MATERIALS);
+        ShapeSet shapes = materials.getShapes();
+        int[] steps = new int[ShapeClosure.ID_NUM];
+        steps[5] = 0x100;
+        File file = tempFile();
+        try {
+            assertThrows(IllegalArgumentException.class,
+                    () -> ShapeDatabaseFile.write(file, OPERATES, shapes, steps, null), "步骤数超过 255");
+            assertThrows(IllegalArgumentException.class,
+                    () -> ShapeDatabaseFile.write(file, OPERATES, shapes, null, null, materials, materials),
+                    "配方比较方式重复");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 修改文件头的某个 int 或截断文件后，打开时报错.
+     */
+    @Test
+    void openValidatesHeader() throws IOException {
+        File file = tempFile();
+        try {
+            ShapeSet shapes = new ShapeSet();
+            shapes.add(1);
+            ShapeDatabaseFile.write(file, OPERATES, shapes, randomBytes(3), null);
+            long fingerprint = RuleFingerprint.of(OPERATES);
+            assertThrows(IllegalArgumentException.class,
+                    () -> ShapeDatabaseFile.open(file, RuleFingerprint.of(Operate.values())), "规则指纹不同");
+            assertEquals(fingerprint, ShapeDatabaseFile.open(file).getFingerprint(), "不检查指纹时应能打开");
+            byte[] original = Files.readAllBytes(file.toPath());
+            // 魔数、版本、数据段标志（缺少可合成图形、多出深度）
+            int[][] changes = {{0, 0x12345678}, {4, ShapeDatabaseFile.VERSION + 1}, {8, 0}, {8, 0x3 | 1 << 16}};
+            for (int[] change : changes) {
+                Files.write(file.toPath(), original);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.seek(change[0]);
+                    raf.writeInt(change[1]);
+                }
+                assertThrows(IllegalArgumentException.class, () -> ShapeDatabaseFile.open(file, fingerprint),
+                        "偏移 " + change[0] + " 处改为 " + change[1]);
+            }
+            for (int length : new int[]{0, 16, original.length - 1}) {
+                Files.write(file.toPath(), Arrays.copyOf(original, length));
+                assertThrows(IllegalArgumentException.class, () -> ShapeDatabaseFile.open(file, fingerprint),
+                        "截断为 " + length + " 字节");
+            }
+            Files.write(file.toPath(), Arrays.copyOf(original, original.length + 1));
+            assertThrows(IllegalArgumentException.class, () -> ShapeDatabaseFile.open(file, fingerprint), "多出 1 字节");
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * json 格式的图形 id 列表能够原样读回，不合规的内容直接报错.
+ *
+ * @author MengLeiFudge
+ */
+class ShapeSetTest {
+    private static ShapeSet read(String json) throws IOException {
+        File file = Files.createTempFile("shape-set", ".json").toFile();
+        try {
+            Files.writeString(file.toPath(), json, StandardCharsets.UTF_8);
+            return ShapeSet.readJson(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void writeThenReadJson() throws IOException {
+        ShapeSet set = new ShapeSet();
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            set.add(random.nextInt(ShapeClosure.ID_NUM));
+        }
+        set.add(0xFFFF);
+        File file = Files.createTempFile("shape-set", ".json").toFile();
+        try {
+            set.writeJson(file);
+            assertArrayEquals(set.toArray(), ShapeSet.readJson(file).toArray(), "写入后读回的图形不同");
+            new ShapeSet().writeJson(file);
+            assertTrue(ShapeSet.readJson(file).isEmpty(), "空集合写入后读回不为空");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void readJsonAcceptsWhitespace() throws IOException {
+        assertArrayEquals(new int[]{1, 2, 65535}, read(" [\r\n\t1 ,2,\n\t65535\n]\n").toArray(), "空白字符处理错误");
+        assertTrue(read("[ ]").isEmpty(), "空数组处理错误");
+    }
+
+    @Test
+    void readJsonRejectsMalformedContent() {
+        for (String json : new String[]{"", "not json", "[-5]", "[1.5]", "[1e3]", "[1,]", "[,1]", "[1 2]",
+                "[1", "[1]]", "[1] x", "{\"a\":1}", "[65536]"}) {
+            assertThrows(IllegalArgumentException.class, () -> read(json), "应当拒绝：" + json);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package shapez.calculate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 查表的堆叠与 {@link SimpleShape} 的堆叠结果一致，且 {@link StackTable#SHIFT_OUT} 恰好表示上层图形被完全挤出.
+ *
+ * @author MengLeiFudge
+ */
+class StackTableTest {
+    private static int expected(int top, int bottom) {
+        return new SimpleShape(top).process(Operate.STACK, new SimpleShape(bottom)).id();
+    }
+
+    /**
+     * 偏移只取决于列高度组合，因此每个上层图形与每种下层列顶高度组合的一个代表图形堆叠即可覆盖所有偏移.
+     * <p>
+     * 最底层非空的上层图形被完全挤出时，结果即为下层图形；没有被挤出时，最底层一定落在下层图形的空位上，
+     * 结果与下层图形不同，因此这样的图形对中，偏移为 {@link StackTable#SHIFT_OUT} 当且仅当结果等于下层图形。
+     */
+    @Test
+    void stackMatchesSimpleShapeForEveryBottomProfile() {
+        int[] representatives = new int[StackTable.PROFILE_NUM];
+        for (int id = ShapeClosure.ID_NUM - 1; id >= 0; id--) {
+            representatives[StackTable.bottomProfile(id)] = id;
+        }
+        for (int top = 0; top < ShapeClosure.ID_NUM; top++) {
+            for (int bottom : representatives) {
+                int result = expected(top, bottom);
+                assertEquals(result, StackTable.stack(top, bottom), top + " 堆叠在 " + bottom + " 上");
+                if ((top & 0xF) != 0) {
+                    boolean out = StackTable.shift(StackTable.topProfile(top), StackTable.bottomProfile(bottom))
+                            == StackTable.SHIFT_OUT;
+                    assertEquals(out, result == bottom, top + " 堆叠在 " + bottom + " 上是否被完全挤出");
+                }
+            }
+        }
+    }
+
+    @Test
+    void stackMatchesSimpleShapeOnRandomPairs() {
+        Random random = new Random(20240501);
+        for (int i = 0; i < 1_000_000; i++) {
+            int top = random.nextInt(ShapeClosure.ID_NUM);
+            int bottom = random.nextInt(ShapeClosure.ID_NUM);
+            assertEquals(expected(top, bottom), StackTable.stack(top, bottom), top + " 堆叠在 " + bottom + " 上");
+        }
+    }
+
+    @Test
+    void bucketsGroupShapesByProfile() {
+        ShapeSet shapes = new ShapeSet();
+        for (int id = 1; id < ShapeClosure.ID_NUM; id += 3) {
+            shapes.add(id);
+        }
+        for (boolean asBottom : new boolean[]{true, false}) {
+            ProfileBuckets buckets = new ProfileBuckets(shapes, asBottom);
+            int num = 0;
+            for (int g = 0; g < buckets.size(); g++) {
+                for (int i = buckets.from(g); i < buckets.to(g); i++) {
+                    int id = buckets.id(i);
+                    assertTrue(shapes.contains(id));
+                    int profile = asBottom ? StackTable.bottomProfile(id) : StackTable.topProfile(id);
+                    assertEquals(buckets.profile(g), profile, "图形 " + id + " 的分组");
+                    num++;
+                }
+            }
+            assertEquals(shapes.cardinality(), num);
+        }
+    }
+
+    /**
+     * 逐个加入的图形，遍历到的结果恰好是与每个已加入图形的堆叠中，上层图形没有被完全挤出的那些.
+     */
+    @Test
+    void partnersEnumerateEveryStack() {
+        Random random = new Random(7);
+        StackPartners partners = new StackPartners();
+        int[] added = new int[2000];
+        for (int n = 0; n < added.length; n++) {
+            int id = 1 + random.nextInt(ShapeClosure.ID_NUM - 1);
+            added[n] = id;
+            partners.add(id, n);
+            if (n % 97 != 0) {
+                continue;
+            }
+            for (boolean asTop : new boolean[]{true, false}) {
+                boolean[] seen = new boolean[n + 1];
+                for (int num = asTop ? partners.beginAsTop(id) : partners.beginAsBottom(id); num != 0;
+                     num = partners.nextGroup()) {
+                    int[] results = partners.results();
+                    int[] values = partners.values();
+                    for (int i = 0; i < num; i++) {
+                        int other = added[values[i]];
+                        int expected = asTop ? StackTable.stack(id, other) : StackTable.stack(other, id);
+                        assertEquals(expected, results[i], id + " 与 " + other + " 的堆叠结果");
+                        assertFalse(seen[values[i]], "重复的图形：" + other);
+                        seen[values[i]] = true;
+                    }
+                }
+                for (int k = 0; k <= n; k++) {
+                    int top = asTop ? id : added[k];
+                    int bottom = asTop ? added[k] : id;
+                    boolean out = StackTable.shift(StackTable.topProfile(top), StackTable.bottomProfile(bottom))
+                            == StackTable.SHIFT_OUT;
+                    assertEquals(!out, seen[k], top + " 堆叠在 " + bottom + " 上是否被遍历");
+                }
+            }
+        }
+    }
+}